@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.champ;
+
+/*
+ * Benchmark key with a controllable hash distribution.
+ *
+ * Good keys spread their hashes over all bits. Colliding keys share their hash
+ * with COLLISION_GROUP-1 other keys, which forces full hash collisions and puts
+ * entries into collision nodes.
+ */
+final class BenchKey {
+
+  static final int COLLISION_GROUP = 8;
+
+  final int value;
+  private final int hash;
+
+  private BenchKey(int value, int hash) {
+    this.value = value;
+    this.hash = hash;
+  }
+
+  static BenchKey of(int value, String distribution) {
+    switch (distribution) {
+      case "good":
+        return new BenchKey(value, mix(value));
+      case "colliding":
+        return new BenchKey(value, mix(value / COLLISION_GROUP));
+      default:
+        throw new IllegalArgumentException("unknown hash distribution: " + distribution);
+    }
+  }
+
+  static BenchKey[] range(int from, int to, String distribution) {
+    BenchKey[] keys = new BenchKey[to - from];
+    for (int i = from; i < to; i++) {
+      keys[i - from] = of(i, distribution);
+    }
+    return keys;
+  }
+
+  // murmur3 finalizer
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof BenchKey)) return false;
+    BenchKey other = (BenchKey) o;
+    return value == other.value && hash == other.hash;
+  }
+
+  @Override
+  public String toString() {
+    return Integer.toString(value);
+  }
+
+}
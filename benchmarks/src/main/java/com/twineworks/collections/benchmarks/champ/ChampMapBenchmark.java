@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.champ;
+
+import com.twineworks.collections.champ.ChampMap;
+import com.twineworks.collections.champ.TransientChampMap;
+import org.openjdk.jmh.annotations.*;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Single-key operations on maps of a given size.
+ *
+ * Lookups and updates pick keys from a pre-shuffled sequence, so consecutive
+ * operations touch unrelated parts of the trie. Each persistent update is applied
+ * to the same source map, so the map size stays constant across invocations.
+ *
+ * Run with -prof gc to get allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class ChampMapBenchmark {
+
+  private static final int PROBES = 1 << 12;
+
+  @Param({"10", "1000", "100000", "10000000"})
+  public int size;
+
+  @Param({"good", "colliding"})
+  public String hashes;
+
+  private ChampMap<BenchKey, Integer> champMap;
+  private HashMap<BenchKey, Integer> hashMap;
+  private PMap<BenchKey, Integer> pMap;
+  private io.vavr.collection.HashMap<BenchKey, Integer> vavrMap;
+
+  // keys present in the maps, and keys absent from the maps
+  private BenchKey[] present;
+  private BenchKey[] absent;
+  private final Integer value = -1;
+
+  private int probe;
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchKey[] keys = BenchKey.range(0, size, hashes);
+
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>();
+    hashMap = new HashMap<>();
+    for (BenchKey key : keys) {
+      t.set(key, key.value);
+      hashMap.put(key, key.value);
+    }
+    champMap = t.freeze();
+    pMap = HashTreePMap.from(hashMap);
+    vavrMap = io.vavr.collection.HashMap.ofAll(hashMap);
+
+    Random random = new Random(42);
+    present = new BenchKey[PROBES];
+    absent = new BenchKey[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      present[i] = keys[random.nextInt(size)];
+      absent[i] = BenchKey.of(size + random.nextInt(size), hashes);
+    }
+
+  }
+
+  private int nextProbe() {
+    return probe = (probe + 1) & (PROBES - 1);
+  }
+
+  // ChampMap
+
+  @Benchmark
+  public Integer champGet() {
+    return champMap.get(present[nextProbe()]);
+  }
+
+  @Benchmark
+  public Integer champGetMiss() {
+    return champMap.get(absent[nextProbe()]);
+  }
+
+  @Benchmark
+  public ChampMap<BenchKey, Integer> champSetReplace() {
+    return champMap.set(present[nextProbe()], value);
+  }
+
+  @Benchmark
+  public ChampMap<BenchKey, Integer> champSetInsert() {
+    return champMap.set(absent[nextProbe()], value);
+  }
+
+  @Benchmark
+  public ChampMap<BenchKey, Integer> champRemove() {
+    return champMap.remove(present[nextProbe()]);
+  }
+
+  // pcollections HashTreePMap
+
+  @Benchmark
+  public Integer pMapGet() {
+    return pMap.get(present[nextProbe()]);
+  }
+
+  @Benchmark
+  public PMap<BenchKey, Integer> pMapPutReplace() {
+    return pMap.plus(present[nextProbe()], value);
+  }
+
+  @Benchmark
+  public PMap<BenchKey, Integer> pMapPutInsert() {
+    return pMap.plus(absent[nextProbe()], value);
+  }
+
+  @Benchmark
+  public PMap<BenchKey, Integer> pMapRemove() {
+    return pMap.minus(present[nextProbe()]);
+  }
+
+  // vavr HashMap
+
+  @Benchmark
+  public Object vavrGet() {
+    return vavrMap.get(present[nextProbe()]);
+  }
+
+  @Benchmark
+  public io.vavr.collection.HashMap<BenchKey, Integer> vavrPutReplace() {
+    return vavrMap.put(present[nextProbe()], value);
+  }
+
+  @Benchmark
+  public io.vavr.collection.HashMap<BenchKey, Integer> vavrPutInsert() {
+    return vavrMap.put(absent[nextProbe()], value);
+  }
+
+  @Benchmark
+  public io.vavr.collection.HashMap<BenchKey, Integer> vavrRemove() {
+    return vavrMap.remove(present[nextProbe()]);
+  }
+
+  // mutable HashMap, lookups only
+
+  @Benchmark
+  public Integer hashMapGet() {
+    return hashMap.get(present[nextProbe()]);
+  }
+
+  @Benchmark
+  public Integer hashMapGetMiss() {
+    return hashMap.get(absent[nextProbe()]);
+  }
+
+}
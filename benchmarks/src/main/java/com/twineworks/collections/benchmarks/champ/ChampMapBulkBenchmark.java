@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.champ;
+
+import com.twineworks.collections.champ.ChampMap;
+import com.twineworks.collections.champ.TransientChampMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bulk operations on maps of a given size.
+ *
+ * setAll merges BATCH entries into the map, half of them replacing existing
+ * keys and half of them new. removeAll removes BATCH existing keys.
+ * Building measures a complete transient build of a map of the given size,
+ * including freeze().
+ *
+ * Run with -prof gc to get allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class ChampMapBulkBenchmark {
+
+  private static final int BATCH = 100;
+
+  @Param({"10", "1000", "100000", "10000000"})
+  public int size;
+
+  @Param({"good", "colliding"})
+  public String hashes;
+
+  private BenchKey[] keys;
+  private ChampMap<BenchKey, Integer> champMap;
+
+  private ChampMap<BenchKey, Integer> champBatch;
+  private HashMap<BenchKey, Integer> hashBatch;
+  private List<BenchKey> removeBatch;
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    keys = BenchKey.range(0, size, hashes);
+
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>();
+    for (BenchKey key : keys) {
+      t.set(key, key.value);
+    }
+    champMap = t.freeze();
+
+    Random random = new Random(42);
+
+    TransientChampMap<BenchKey, Integer> batch = new TransientChampMap<>();
+    hashBatch = new HashMap<>();
+    removeBatch = new ArrayList<>();
+
+    for (int i = 0; i < BATCH; i++) {
+      // half existing keys, half new ones
+      BenchKey key = (i % 2 == 0) ? keys[random.nextInt(size)] : BenchKey.of(size + i, hashes);
+      batch.set(key, -1);
+      hashBatch.put(key, -1);
+      removeBatch.add(keys[random.nextInt(size)]);
+    }
+    champBatch = batch.freeze();
+
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public ChampMap<BenchKey, Integer> setAllChampMap() {
+    return champMap.setAll(champBatch);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public ChampMap<BenchKey, Integer> setAllMap() {
+    return champMap.setAll(hashBatch);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public ChampMap<BenchKey, Integer> removeAll() {
+    return champMap.removeAll(removeBatch);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public ChampMap<BenchKey, Integer> transientSetAll() {
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>(champMap);
+    t.setAll(champBatch);
+    return t.freeze();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public ChampMap<BenchKey, Integer> transientRemoveAll() {
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>(champMap);
+    t.removeAll(removeBatch);
+    return t.freeze();
+  }
+
+  @Benchmark
+  public ChampMap<BenchKey, Integer> transientBuild() {
+    BenchKey[] keys = this.keys;
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>();
+    for (BenchKey key : keys) {
+      t.set(key, key.value);
+    }
+    return t.freeze();
+  }
+
+  @Benchmark
+  public HashMap<BenchKey, Integer> hashMapBuild() {
+    BenchKey[] keys = this.keys;
+    HashMap<BenchKey, Integer> m = new HashMap<>();
+    for (BenchKey key : keys) {
+      m.put(key, key.value);
+    }
+    return m;
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.champ;
+
+import com.twineworks.collections.champ.ChampEntry;
+import com.twineworks.collections.champ.ChampMap;
+import com.twineworks.collections.champ.TransientChampMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Full traversals of maps of a given size. Scores are per traversal,
+ * divide by size for the cost per visited element.
+ *
+ * Run with -prof gc to see the cost of materializing entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class ChampMapIterationBenchmark {
+
+  @Param({"10", "1000", "100000", "10000000"})
+  public int size;
+
+  @Param({"good", "colliding"})
+  public String hashes;
+
+  private ChampMap<BenchKey, Integer> champMap;
+  private HashMap<BenchKey, Integer> hashMap;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    TransientChampMap<BenchKey, Integer> t = new TransientChampMap<>();
+    hashMap = new HashMap<>();
+    for (BenchKey key : BenchKey.range(0, size, hashes)) {
+      t.set(key, key.value);
+      hashMap.put(key, key.value);
+    }
+    champMap = t.freeze();
+  }
+
+  @Benchmark
+  public void keyIterator(Blackhole bh) {
+    Iterator<BenchKey> i = champMap.keyIterator();
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void valueIterator(Blackhole bh) {
+    Iterator<Integer> i = champMap.valueIterator();
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void entryIterator(Blackhole bh) {
+    Iterator<Map.Entry<BenchKey, Integer>> i = champMap.entryIterator();
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void champEntryIterator(Blackhole bh) {
+    Iterator<ChampEntry<BenchKey, Integer>> i = champMap.champEntryIterator();
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void hashMapEntryIterator(Blackhole bh) {
+    for (Map.Entry<BenchKey, Integer> e : hashMap.entrySet()) {
+      bh.consume(e);
+    }
+  }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.footprint;
+
+import com.twineworks.collections.batch.Batch;
+import com.twineworks.collections.champ.ChampMap;
+import com.twineworks.collections.champ.TransientChampMap;
+import com.twineworks.collections.shapemap.ConstShapeMap;
+import com.twineworks.collections.shapemap.ShapeKey;
+import com.twineworks.collections.shapemap.ShapeMap;
+import com.twineworks.collections.shapemap.ShapeTemplate;
+import com.twineworks.collections.shapemap.SlotType;
+import com.twineworks.collections.trie.TrieList;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Typical mutations of each collection type. FootprintGate runs these with
+ * the GC profiler and compares bytes allocated per operation to the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 3, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+  private static final int PROBES = 1 << 10;
+  private final Object value = "v";
+
+  private List<ShapeKey> keys;
+  private ShapeKey[] keyArray;
+  private ShapeMap<Object> shapeMap;
+  private ConstShapeMap<Object> constShapeMap;
+  private ShapeMap.Accessor<Object> accessor;
+  private byte[][] keyBytes;
+  private ShapeTemplate template;
+  private ShapeMap<Object> enrichment;
+  private ConstShapeMap.Accessor<Object> constAccessor;
+  private ConstShapeMap<Object> counters;
+  private ConstShapeMap<Object> typedConstShapeMap;
+  private ConstShapeMap.LongAccessor longAccessor;
+
+  private ChampMap<Integer, Object> champMap;
+  private Integer[] present;
+  private Integer[] absent;
+
+  private TrieList trieList;
+  private Batch<Object> batch;
+
+  private int probe;
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    keys = Footprints.recordKeys();
+    keyArray = keys.toArray(new ShapeKey[0]);
+
+    shapeMap = new ShapeMap<>(keys);
+    constShapeMap = new ConstShapeMap<>(keys);
+    accessor = ShapeMap.accessor(keyArray[keyArray.length - 1]);
+
+    template = ShapeMap.template(keys);
+    enrichment = new ShapeMap<>(shapeMap);
+
+    ShapeKey counter = keyArray[keyArray.length - 1];
+    constAccessor = ConstShapeMap.accessor(counter);
+    counters = new ConstShapeMap<>(keys);
+    HashMap<ShapeKey, SlotType> types = new HashMap<>();
+    for (ShapeKey key : keys) {
+      types.put(key, SlotType.LONG);
+    }
+    typedConstShapeMap = new ConstShapeMap<>(ConstShapeMap.typedShape(types));
+    longAccessor = ConstShapeMap.longAccessor(counter);
+
+    keyBytes = new byte[keyArray.length][];
+    for (int i = 0; i < keyArray.length; i++) {
+      keyBytes[i] = keyArray[i].sym.getBytes(StandardCharsets.UTF_8);
+    }
+
+    TransientChampMap<Integer, Object> t = new TransientChampMap<>();
+    for (int i = 0; i < Footprints.ENTRIES; i++) {
+      t.set(i, value);
+    }
+    champMap = t.freeze();
+
+    present = new Integer[PROBES];
+    absent = new Integer[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      present[i] = (i * 31) % Footprints.ENTRIES;
+      absent[i] = Footprints.ENTRIES + i;
+    }
+
+    TrieList l = TrieList.empty();
+    for (int i = 0; i < Footprints.ENTRIES; i++) {
+      l = l.add(i);
+    }
+    trieList = l;
+
+    batch = new Batch<>(Footprints.ENTRIES);
+
+  }
+
+  private int nextProbe() {
+    return probe = (probe + 1) & (PROBES - 1);
+  }
+
+  @Benchmark
+  public Object shapeMapPut() {
+    return shapeMap.put(keyArray[nextProbe() & (Footprints.RECORD_KEYS - 1)], value);
+  }
+
+  @Benchmark
+  public Object shapeMapRemovePut() {
+    ShapeKey k = keyArray[nextProbe() & (Footprints.RECORD_KEYS - 1)];
+    shapeMap.remove(k);
+    return shapeMap.put(k, value);
+  }
+
+  @Benchmark
+  public Object shapeMapAccessorSet() {
+    accessor.set(shapeMap, value);
+    return shapeMap;
+  }
+
+  // a record grown key by key, following cached shape transitions
+  @Benchmark
+  public ShapeMap<Object> shapeMapBuild() {
+    ShapeMap<Object> m = new ShapeMap<>();
+    for (ShapeKey key : keyArray) {
+      m.put(key, value);
+    }
+    return m;
+  }
+
+  // a record created with its full key set up front
+  @Benchmark
+  public ShapeMap<Object> shapeMapBuildFromKeys() {
+    ShapeMap<Object> m = new ShapeMap<>(keys);
+    for (ShapeKey key : keyArray) {
+      m.set(key, value);
+    }
+    return m;
+  }
+
+  // a record stamped out of a template of its keys
+  @Benchmark
+  public ShapeMap<Object> shapeMapFromTemplate() {
+    return template.newShapeMap();
+  }
+
+  @Benchmark
+  public ConstShapeMap<Object> constShapeMapFromTemplate() {
+    return template.newConstShapeMap();
+  }
+
+  // merging a record of the same shape
+  @Benchmark
+  public Object shapeMapPutAll() {
+    shapeMap.putAll(enrichment);
+    return shapeMap;
+  }
+
+  @Benchmark
+  public ConstShapeMap<Object> constShapeMapBuild() {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(keys);
+    for (ShapeKey key : keyArray) {
+      m.set(key, value);
+    }
+    return m;
+  }
+
+  // looking up an interned key by the bytes a parser produced
+  @Benchmark
+  public ShapeKey shapeKeyGetUtf8() {
+    byte[] b = keyBytes[nextProbe() & (Footprints.RECORD_KEYS - 1)];
+    return ShapeKey.get(b, 0, b.length);
+  }
+
+  @Benchmark
+  public Object constShapeMapPut() {
+    return constShapeMap.put(keyArray[nextProbe() & (Footprints.RECORD_KEYS - 1)], value);
+  }
+
+  // a counter in an Object slot, boxing each sum
+  @Benchmark
+  public long constShapeMapAddLong() {
+    return constAccessor.addLong(counters, 1000);
+  }
+
+  // a counter in a LONG slot of a typed shape
+  @Benchmark
+  public long constShapeMapLongAccessorAdd() {
+    return longAccessor.add(typedConstShapeMap, 1000);
+  }
+
+  @Benchmark
+  public ChampMap<Integer, Object> champMapSetReplace() {
+    return champMap.set(present[nextProbe()], "w");
+  }
+
+  @Benchmark
+  public ChampMap<Integer, Object> champMapSetInsert() {
+    return champMap.set(absent[nextProbe()], value);
+  }
+
+  @Benchmark
+  public ChampMap<Integer, Object> champMapRemove() {
+    return champMap.remove(present[nextProbe()]);
+  }
+
+  @Benchmark
+  public TrieList trieListAdd() {
+    return trieList.add(value);
+  }
+
+  @Benchmark
+  public TrieList trieListSet() {
+    return trieList.set(present[nextProbe()], value);
+  }
+
+  @Benchmark
+  public TrieList trieListPop() {
+    return trieList.pop();
+  }
+
+  @Benchmark
+  public Object batchAddRemove() {
+    batch.add(value);
+    return batch.remove();
+  }
+
+}
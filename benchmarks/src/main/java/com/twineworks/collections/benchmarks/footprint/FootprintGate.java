@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.footprint;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+ * Footprint and allocation regression gate.
+ *
+ * Measures retained heap per entry using JOL and bytes allocated per mutation
+ * using the JMH GC profiler, and compares them to a checked-in baseline file.
+ * Exits with a non-zero status if any metric exceeds its baseline by more than
+ * the configured threshold.
+ *
+ * Retained footprint is exact, so footprint.* metrics are held to the threshold
+ * alone. The GC profiler reports allocation with a little noise, so alloc.*
+ * metrics may additionally exceed it by the slack.
+ *
+ * Usage: FootprintGate <baseline-file>
+ *
+ * System properties:
+ *  footprint.threshold  allowed relative increase, defaults to 0.05
+ *  footprint.slack      allowed absolute increase of alloc.* metrics in bytes, defaults to 1
+ *  footprint.update     if true, writes current measurements to the baseline file
+ *  footprint.strict     if true, fails when the baseline cannot be enforced on this VM
+ *
+ * Measurements depend on the VM memory model and JDK version. If the baseline
+ * was recorded on a different model or JDK, the gate reports but does not fail,
+ * unless footprint.strict is set. CI runs it strictly, on the baseline's JDK.
+ */
+public class FootprintGate {
+
+  private static final String VM_KEY = "vm.model";
+  private static final String JDK_KEY = "java.specification.version";
+  private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+  private static final String ALLOC_PREFIX = "alloc.";
+
+  public static void main(String[] args) throws IOException, RunnerException {
+
+    if (args.length != 1) {
+      System.err.println("usage: FootprintGate <baseline-file>");
+      System.exit(2);
+    }
+
+    File baselineFile = new File(args[0]);
+    double threshold = Double.parseDouble(System.getProperty("footprint.threshold", "0.05"));
+    double slack = Double.parseDouble(System.getProperty("footprint.slack", "1"));
+    boolean update = Boolean.getBoolean("footprint.update");
+    boolean strict = Boolean.getBoolean("footprint.strict");
+
+    TreeMap<String, Double> current = new TreeMap<>();
+    current.putAll(Footprints.measure());
+    current.putAll(allocations());
+
+    String vmModel = Retained.vmModel();
+    String jdk = System.getProperty(JDK_KEY);
+
+    if (update) {
+      write(baselineFile, current, vmModel, jdk);
+      System.out.println("baseline written to " + baselineFile);
+      return;
+    }
+
+    Properties baseline = read(baselineFile);
+    boolean comparable = vmModel.equals(baseline.getProperty(VM_KEY)) && jdk.equals(baseline.getProperty(JDK_KEY));
+
+    List<String> failures = new ArrayList<>();
+    System.out.println(String.format("%-55s %12s %12s", "metric", "baseline", "current"));
+
+    for (Map.Entry<String, Double> e : current.entrySet()) {
+
+      String metric = e.getKey();
+      double value = e.getValue();
+      String b = baseline.getProperty(metric);
+
+      if (b == null) {
+        System.out.println(String.format("%-55s %12s %12.2f", metric, "-", value));
+        continue;
+      }
+
+      double limit = Double.parseDouble(b);
+      double allowed = limit * (1 + threshold) + (metric.startsWith(ALLOC_PREFIX) ? slack : 0);
+      String marker = "";
+      if (value > allowed) {
+        failures.add(metric + ": " + String.format("%.2f", value) + " exceeds baseline " + b);
+        marker = "  <-- regression";
+      }
+      System.out.println(String.format("%-55s %12.2f %12.2f%s", metric, limit, value, marker));
+
+    }
+
+    if (!comparable) {
+      String mismatch = "baseline was recorded on " + baseline.getProperty(VM_KEY) + ", java " + baseline.getProperty(JDK_KEY)
+        + ", current VM is " + vmModel + ", java " + jdk;
+      if (strict) {
+        System.err.println(mismatch + ": cannot enforce baseline");
+        System.exit(1);
+      }
+      System.out.println(mismatch + ": not enforcing baseline");
+      return;
+    }
+
+    if (!failures.isEmpty()) {
+      System.err.println("footprint regressions:");
+      for (String failure : failures) {
+        System.err.println("  " + failure);
+      }
+      System.err.println("if the increase is intended, update the baseline with -Dfootprint.update=true");
+      System.exit(1);
+    }
+
+    System.out.println("footprint within baseline");
+
+  }
+
+  private static Map<String, Double> allocations() throws RunnerException {
+
+    Collection<RunResult> results = new Runner(new OptionsBuilder()
+      .include(AllocationBenchmark.class.getName())
+      .addProfiler(GCProfiler.class)
+      .build()).run();
+
+    TreeMap<String, Double> m = new TreeMap<>();
+    for (RunResult result : results) {
+      String benchmark = result.getParams().getBenchmark();
+      String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+      Result<?> alloc = result.getSecondaryResults().get(ALLOC_METRIC);
+      m.put("alloc." + name + ".bytesPerOp", alloc.getScore());
+    }
+    return m;
+
+  }
+
+  private static Properties read(File file) throws IOException {
+    Properties p = new Properties();
+    try (Reader r = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      p.load(r);
+    }
+    return p;
+  }
+
+  private static void write(File file, Map<String, Double> values, String vmModel, String jdk) throws IOException {
+    try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      w.println("# footprint and allocation baseline, written by FootprintGate");
+      w.println("# retained bytes per entry (footprint.*) and bytes allocated per operation (alloc.*)");
+      w.println(VM_KEY + "=" + vmModel);
+      w.println(JDK_KEY + "=" + jdk);
+      for (Map.Entry<String, Double> e : values.entrySet()) {
+        w.println(e.getKey() + "=" + String.format(Locale.ROOT, "%.2f", e.getValue()));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.footprint;
+
+import com.twineworks.collections.batch.Batch;
+import com.twineworks.collections.champ.ChampMap;
+import com.twineworks.collections.champ.TransientChampMap;
+import com.twineworks.collections.shapemap.ConstShapeMap;
+import com.twineworks.collections.shapemap.ShapeKey;
+import com.twineworks.collections.shapemap.ShapeMap;
+import com.twineworks.collections.trie.TrieList;
+
+import java.util.*;
+
+/*
+ * Retained heap per entry of each collection type.
+ *
+ * Record-like maps are measured at RECORD_KEYS entries, which is what typical
+ * records look like. Bulk collections are measured at ENTRIES entries.
+ * Keys, values and shapes are shared and not counted.
+ */
+final class Footprints {
+
+  static final int RECORD_KEYS = 8;
+  static final int ENTRIES = 1000;
+
+  private static final Object VALUE = "v";
+
+  // HashSets share an internal value object, which is reachable from a
+  // collection only if it happens to use a HashSet or LinkedHashSet
+  private static final Object HASH_SET = new HashSet<>(Collections.singleton(VALUE));
+
+  private Footprints() {}
+
+  static Map<String, Double> measure() {
+
+    LinkedHashMap<String, Double> m = new LinkedHashMap<>();
+    m.put("footprint.ShapeMap.bytesPerEntry", shapeMap());
+    m.put("footprint.ConstShapeMap.bytesPerEntry", constShapeMap());
+    m.put("footprint.ChampMap.bytesPerEntry", champMap());
+    m.put("footprint.TrieList.bytesPerEntry", trieList());
+    m.put("footprint.Batch.bytesPerEntry", batch());
+    return m;
+
+  }
+
+  static List<ShapeKey> recordKeys() {
+    ArrayList<ShapeKey> keys = new ArrayList<>();
+    for (int i = 0; i < RECORD_KEYS; i++) {
+      keys.add(ShapeKey.get("field_" + i));
+    }
+    return keys;
+  }
+
+  // storage, presence and key tracking of a map grown key by key
+  private static double shapeMap() {
+    ShapeMap<Object> map = new ShapeMap<>();
+    for (ShapeKey key : recordKeys()) {
+      map.put(key, VALUE);
+    }
+    return (double) Retained.sizeOf(map, map.shape, VALUE, HASH_SET) / RECORD_KEYS;
+  }
+
+  private static double constShapeMap() {
+    List<ShapeKey> keys = recordKeys();
+    ConstShapeMap<Object> map = new ConstShapeMap<>(keys);
+    for (ShapeKey key : keys) {
+      map.put(key, VALUE);
+    }
+    return (double) Retained.sizeOf(map, map.shape, VALUE, HASH_SET) / RECORD_KEYS;
+  }
+
+  private static double champMap() {
+    Integer[] keys = new Integer[ENTRIES];
+    TransientChampMap<Integer, Object> t = new TransientChampMap<>();
+    for (int i = 0; i < ENTRIES; i++) {
+      keys[i] = i;
+      t.set(keys[i], VALUE);
+    }
+    ChampMap<Integer, Object> map = t.freeze();
+    return (double) Retained.sizeOf(map, keys, VALUE) / ENTRIES;
+  }
+
+  private static double trieList() {
+    Object[] items = new Object[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      items[i] = i;
+    }
+    TrieList list = TrieList.empty();
+    for (Object item : items) {
+      list = list.add(item);
+    }
+    return (double) Retained.sizeOf(list, items) / ENTRIES;
+  }
+
+  private static double batch() {
+    Object[] items = new Object[ENTRIES];
+    Batch<Object> batch = new Batch<>(ENTRIES);
+    for (int i = 0; i < ENTRIES; i++) {
+      items[i] = i;
+      batch.add(items[i]);
+    }
+    return (double) Retained.sizeOf(batch, items) / ENTRIES;
+  }
+
+}
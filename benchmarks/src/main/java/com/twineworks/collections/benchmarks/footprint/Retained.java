@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.footprint;
+
+import org.openjdk.jol.vm.VM;
+import org.openjdk.jol.vm.VirtualMachine;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/*
+ * Retained heap measurement based on JOL object sizes.
+ *
+ * Walks the object graph reachable from a root and sums the sizes of all
+ * objects not reachable from a given set of shared objects. Shared objects
+ * are things a collection references but does not own: keys, values and
+ * shapes that are shared between all maps of the same layout.
+ */
+final class Retained {
+
+  private static final VirtualMachine vm = VM.current();
+  private static final Map<Class<?>, List<Field>> fieldCache = new HashMap<>();
+
+  private Retained() {}
+
+  // describes the memory model sizes are measured in
+  static String vmModel() {
+    return "ref=" + (vm.sizeOf(new Object[16]) - vm.sizeOf(new Object[8])) / 8 + " klass=" + vm.classPointerSize()
+      + " header=" + vm.objectHeaderSize() + " align=" + vm.objectAlignment();
+  }
+
+  static long sizeOf(Object root, Object... shared) {
+
+    Set<Object> excluded = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    for (Object o : shared) {
+      walk(o, Collections.emptySet(), excluded);
+    }
+
+    Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    walk(root, excluded, owned);
+
+    long size = 0;
+    for (Object o : owned) {
+      size += vm.sizeOf(o);
+    }
+    return size;
+  }
+
+  private static void walk(Object root, Set<Object> excluded, Set<Object> visited) {
+
+    ArrayDeque<Object> stack = new ArrayDeque<>();
+    if (root != null) stack.push(root);
+
+    while (!stack.isEmpty()) {
+
+      Object o = stack.pop();
+      if (excluded.contains(o) || !visited.add(o)) continue;
+
+      Class<?> c = o.getClass();
+      if (c.isArray()) {
+        if (!c.getComponentType().isPrimitive()) {
+          for (Object e : (Object[]) o) {
+            if (e != null) stack.push(e);
+          }
+        }
+      }
+      else {
+        for (Field f : referenceFields(c)) {
+          Object v = vm.getObject(o, vm.fieldOffset(f));
+          if (v != null) stack.push(v);
+        }
+      }
+    }
+
+  }
+
+  private static List<Field> referenceFields(Class<?> c) {
+
+    List<Field> fields = fieldCache.get(c);
+    if (fields != null) return fields;
+
+    fields = new ArrayList<>();
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      for (Field f : k.getDeclaredFields()) {
+        if (Modifier.isStatic(f.getModifiers())) continue;
+        if (f.getType().isPrimitive()) continue;
+        fields.add(f);
+      }
+    }
+    fieldCache.put(c, fields);
+    return fields;
+  }
+
+}
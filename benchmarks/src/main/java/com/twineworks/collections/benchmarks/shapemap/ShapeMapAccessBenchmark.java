@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.shapemap;
+
+import com.twineworks.collections.shapemap.ConstShapeMap;
+import com.twineworks.collections.shapemap.ShapeKey;
+import com.twineworks.collections.shapemap.ShapeMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Accesses a single key on a batch of records whose shapes are drawn from
+ * a pool of distinct shapes. The number of shapes a call site sees is the
+ * interesting parameter: accessors keep an inline cache of up to four shapes,
+ * so throughput is expected to drop once the pool grows beyond that.
+ *
+ * All variants report time per single record access.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ShapeMapAccessBenchmark {
+
+  private static final int RECORDS = 1024;
+
+  // keys every record has in addition to the accessed key
+  private static final int FILLER_KEYS = 6;
+
+  @Param({"1", "2", "4", "8", "32"})
+  public int shapes;
+
+  private final String sym = "k";
+  private final ShapeKey key = ShapeKey.get(sym);
+  private final Object value = "v";
+
+  private ShapeMap<Object>[] shapeMaps;
+  private ConstShapeMap<Object>[] constShapeMaps;
+  private HashMap<String, Object>[] strHashMaps;
+  private HashMap<ShapeKey, Object>[] keyHashMaps;
+
+  private ShapeMap.Accessor<Object> accessor;
+  private final Object[] column = new Object[RECORDS];
+  private ConstShapeMap.Accessor<Object> constAccessor;
+
+  @Setup(Level.Trial)
+  // arrays of generic maps are created raw
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void setup() {
+
+    // distinct key sets, each containing the accessed key
+    List<List<String>> keySets = new ArrayList<>();
+    for (int s = 0; s < shapes; s++) {
+      List<String> syms = new ArrayList<>();
+      for (int f = 0; f < FILLER_KEYS; f++) {
+        syms.add("f" + f);
+      }
+      syms.add("s" + s);
+      syms.add(sym);
+      keySets.add(syms);
+    }
+
+    // shuffled assignment of shapes to records, so the
+    // sequence of shapes a call site sees is not trivially predictable
+    int[] shapeOf = new int[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      shapeOf[i] = i % shapes;
+    }
+    Random random = new Random(42);
+    for (int i = RECORDS - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int t = shapeOf[i];
+      shapeOf[i] = shapeOf[j];
+      shapeOf[j] = t;
+    }
+
+    shapeMaps = new ShapeMap[RECORDS];
+    constShapeMaps = new ConstShapeMap[RECORDS];
+    strHashMaps = new HashMap[RECORDS];
+    keyHashMaps = new HashMap[RECORDS];
+
+    for (int i = 0; i < RECORDS; i++) {
+
+      List<String> syms = keySets.get(shapeOf[i]);
+      Map<String, Object> src = new LinkedHashMap<>();
+      for (String s : syms) {
+        src.put(s, s);
+      }
+
+      shapeMaps[i] = new ShapeMap<>(src);
+      constShapeMaps[i] = new ConstShapeMap<>(src);
+      strHashMaps[i] = new HashMap<>(src);
+
+      HashMap<ShapeKey, Object> keyHashMap = new HashMap<>();
+      for (String s : syms) {
+        keyHashMap.put(ShapeKey.get(s), s);
+      }
+      keyHashMaps[i] = keyHashMap;
+    }
+
+    // fresh accessors per trial, so no shapes of other trials are cached
+    accessor = ShapeMap.accessor(key);
+    constAccessor = ConstShapeMap.accessor(key);
+
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapGet(Blackhole bh) {
+    ShapeMap<Object>[] maps = shapeMaps;
+    for (ShapeMap<Object> m : maps) {
+      bh.consume(m.get(key));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapPut(Blackhole bh) {
+    ShapeMap<Object>[] maps = shapeMaps;
+    for (ShapeMap<Object> m : maps) {
+      bh.consume(m.put(key, value));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapSet() {
+    ShapeMap<Object>[] maps = shapeMaps;
+    for (ShapeMap<Object> m : maps) {
+      m.set(key, value);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void accessorGet(Blackhole bh) {
+    ShapeMap<Object>[] maps = shapeMaps;
+    ShapeMap.Accessor<Object> a = accessor;
+    for (ShapeMap<Object> m : maps) {
+      bh.consume(a.get(m));
+    }
+  }
+
+  // extracts the column of all records at once
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public Object[] accessorGetAll() {
+    accessor.getAll(shapeMaps, 0, RECORDS, column);
+    return column;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void accessorPut(Blackhole bh) {
+    ShapeMap<Object>[] maps = shapeMaps;
+    ShapeMap.Accessor<Object> a = accessor;
+    for (ShapeMap<Object> m : maps) {
+      bh.consume(a.put(m, value));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void accessorSet() {
+    ShapeMap<Object>[] maps = shapeMaps;
+    ShapeMap.Accessor<Object> a = accessor;
+    for (ShapeMap<Object> m : maps) {
+      a.set(m, value);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void constAccessorGet(Blackhole bh) {
+    ConstShapeMap<Object>[] maps = constShapeMaps;
+    ConstShapeMap.Accessor<Object> a = constAccessor;
+    for (ConstShapeMap<Object> m : maps) {
+      bh.consume(a.get(m));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void constAccessorSet() {
+    ConstShapeMap<Object>[] maps = constShapeMaps;
+    ConstShapeMap.Accessor<Object> a = constAccessor;
+    for (ConstShapeMap<Object> m : maps) {
+      a.set(m, value);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void strHashMapGet(Blackhole bh) {
+    HashMap<String, Object>[] maps = strHashMaps;
+    for (HashMap<String, Object> m : maps) {
+      bh.consume(m.get(sym));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void strHashMapPut(Blackhole bh) {
+    HashMap<String, Object>[] maps = strHashMaps;
+    for (HashMap<String, Object> m : maps) {
+      bh.consume(m.put(sym, value));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void keyHashMapGet(Blackhole bh) {
+    HashMap<ShapeKey, Object>[] maps = keyHashMaps;
+    for (HashMap<ShapeKey, Object> m : maps) {
+      bh.consume(m.get(key));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void keyHashMapPut(Blackhole bh) {
+    HashMap<ShapeKey, Object>[] maps = keyHashMaps;
+    for (HashMap<ShapeKey, Object> m : maps) {
+      bh.consume(m.put(key, value));
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.twineworks.collections.benchmarks.shapemap;
+
+import com.twineworks.collections.shapemap.ShapeKey;
+import com.twineworks.collections.shapemap.ShapeMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Visits all mappings of a batch of records, the access pattern of
+ * serializing or hashing records. Records have a few of their
+ * shape's keys removed, so iteration has to skip absent slots.
+ *
+ * All variants report time per record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ShapeMapIterationBenchmark {
+
+  private static final int RECORDS = 256;
+
+  @Param({"8", "32", "100"})
+  public int keys;
+
+  private ShapeMap<Object>[] shapeMaps;
+  private HashMap<ShapeKey, Object>[] hashMaps;
+
+  @Setup(Level.Trial)
+  // arrays of generic maps are created raw
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void setup() {
+
+    shapeMaps = new ShapeMap[RECORDS];
+    hashMaps = new HashMap[RECORDS];
+
+    for (int i = 0; i < RECORDS; i++) {
+
+      Map<String, Object> src = new LinkedHashMap<>();
+      for (int k = 0; k < keys; k++) {
+        src.put("field_" + k, "v" + k);
+      }
+
+      ShapeMap<Object> m = new ShapeMap<>(src);
+      // every fifth key is absent
+      for (int k = 0; k < keys; k += 5) {
+        m.removes("field_" + k);
+      }
+
+      shapeMaps[i] = m;
+      hashMaps[i] = new HashMap<>(m);
+    }
+
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapForEach(Blackhole bh) {
+    for (ShapeMap<Object> m : shapeMaps) {
+      m.forEach((k, v) -> {
+        bh.consume(k);
+        bh.consume(v);
+      });
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapEntrySet(Blackhole bh) {
+    for (ShapeMap<Object> m : shapeMaps) {
+      for (Map.Entry<ShapeKey, Object> e : m.entrySet()) {
+        bh.consume(e.getKey());
+        bh.consume(e.getValue());
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapValues(Blackhole bh) {
+    for (ShapeMap<Object> m : shapeMaps) {
+      for (Object v : m.values()) {
+        bh.consume(v);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void shapeMapHashCode(Blackhole bh) {
+    for (ShapeMap<Object> m : shapeMaps) {
+      bh.consume(m.hashCode());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void hashMapForEach(Blackhole bh) {
+    for (HashMap<ShapeKey, Object> m : hashMaps) {
+      m.forEach((k, v) -> {
+        bh.consume(k);
+        bh.consume(v);
+      });
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void hashMapEntrySet(Blackhole bh) {
+    for (HashMap<ShapeKey, Object> m : hashMaps) {
+      for (Map.Entry<ShapeKey, Object> e : m.entrySet()) {
+        bh.consume(e.getKey());
+        bh.consume(e.getValue());
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void hashMapHashCode(Blackhole bh) {
+    for (HashMap<ShapeKey, Object> m : hashMaps) {
+      bh.consume(m.hashCode());
+    }
+  }
+
+}
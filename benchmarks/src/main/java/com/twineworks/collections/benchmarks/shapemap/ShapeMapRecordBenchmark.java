@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.shapemap;
+
+import com.twineworks.collections.shapemap.AccessorGroup;
+import com.twineworks.collections.shapemap.RecordView;
+import com.twineworks.collections.shapemap.ShapeKey;
+import com.twineworks.collections.shapemap.ShapeMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reads all fields of interest from a batch of records, once through one
+ * accessor per field, and once through an accessor group resolving all
+ * fields with a single shape check per record.
+ *
+ * All variants report time per record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ShapeMapRecordBenchmark {
+
+  private static final int RECORDS = 1024;
+
+  @Param({"1", "4", "8"})
+  public int shapes;
+
+  @Param({"5", "20"})
+  public int fields;
+
+  private ShapeMap<Object>[] records;
+  private ShapeMap.Accessor<Object>[] accessors;
+  private RecordView<Object> view;
+
+  @Setup(Level.Trial)
+  // arrays of generic maps and accessors are created raw
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void setup() {
+
+    String[] syms = new String[fields];
+    for (int f = 0; f < fields; f++) {
+      syms[f] = "field_" + f;
+    }
+
+    records = new ShapeMap[RECORDS];
+    Random random = new Random(42);
+    for (int i = 0; i < RECORDS; i++) {
+      // shapes differ by an extra key in front of the fields
+      Map<String, Object> src = new LinkedHashMap<>();
+      src.put("shape_" + random.nextInt(shapes), i);
+      for (String sym : syms) {
+        src.put(sym, sym);
+      }
+      records[i] = new ShapeMap<>(src);
+    }
+
+    accessors = new ShapeMap.Accessor[fields];
+    for (int f = 0; f < fields; f++) {
+      accessors[f] = ShapeMap.accessor(ShapeKey.get(syms[f]));
+    }
+
+    AccessorGroup<Object> group = ShapeMap.accessorGroup(syms);
+    view = group.view();
+
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void accessors(Blackhole bh) {
+    ShapeMap.Accessor<Object>[] as = accessors;
+    for (ShapeMap<Object> m : records) {
+      for (ShapeMap.Accessor<Object> a : as) {
+        bh.consume(a.get(m));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void accessorGroup(Blackhole bh) {
+    RecordView<Object> v = view;
+    int n = fields;
+    for (ShapeMap<Object> m : records) {
+      v.bind(m);
+      for (int f = 0; f < n; f++) {
+        bh.consume(v.get(f));
+      }
+    }
+  }
+
+}
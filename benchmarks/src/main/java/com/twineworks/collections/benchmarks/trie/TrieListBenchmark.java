@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.trie;
+
+import com.twineworks.collections.trie.TrieList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Single-element operations on lists of a given size.
+ *
+ * Persistent TrieList operations are compared to ArrayList and to
+ * copy-on-write arrays, which copy the whole array on every update.
+ * Updates are applied to the same source list, so sizes stay constant.
+ * ArrayList updates are paired with their inverse for the same reason.
+ *
+ * Run main() or pass -prof gc to report allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class TrieListBenchmark {
+
+  private static final int PROBES = 1 << 12;
+
+  @Param({"1", "64", "1000", "100000", "10000000"})
+  public int size;
+
+  private TrieList trieList;
+  private ArrayList<Object> arrayList;
+  private Object[] array;
+
+  private int[] indexes;
+  private int probe;
+  private final Object value = "v";
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    Object[] items = new Object[size];
+    for (int i = 0; i < size; i++) {
+      items[i] = i;
+    }
+
+    trieList = TrieList.empty().addAll(items);
+    arrayList = new ArrayList<>(Arrays.asList(items));
+    array = items;
+
+    Random random = new Random(42);
+    indexes = new int[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      indexes[i] = random.nextInt(size);
+    }
+  }
+
+  private int nextIndex() {
+    probe = (probe + 1) & (PROBES - 1);
+    return indexes[probe];
+  }
+
+  // append
+
+  @Benchmark
+  public TrieList trieAppend() {
+    return trieList.add(value);
+  }
+
+  @Benchmark
+  public Object arrayListAppend() {
+    arrayList.add(value);
+    return arrayList.remove(size);
+  }
+
+  @Benchmark
+  public Object[] cowAppend() {
+    Object[] a = Arrays.copyOf(array, size + 1);
+    a[size] = value;
+    return a;
+  }
+
+  // pop
+
+  @Benchmark
+  public TrieList triePop() {
+    return trieList.pop();
+  }
+
+  @Benchmark
+  public Object[] cowPop() {
+    return Arrays.copyOf(array, size - 1);
+  }
+
+  // random get
+
+  @Benchmark
+  public Object trieGet() {
+    return trieList.get(nextIndex());
+  }
+
+  @Benchmark
+  public Object arrayListGet() {
+    return arrayList.get(nextIndex());
+  }
+
+  @Benchmark
+  public Object cowGet() {
+    return array[nextIndex()];
+  }
+
+  // random set
+
+  @Benchmark
+  public TrieList trieSet() {
+    return trieList.set(nextIndex(), value);
+  }
+
+  @Benchmark
+  public Object arrayListSet() {
+    int i = nextIndex();
+    return arrayList.set(i, arrayList.get(i));
+  }
+
+  @Benchmark
+  public Object[] cowSet() {
+    Object[] a = array.clone();
+    a[nextIndex()] = value;
+    return a;
+  }
+
+  // insert at random index
+
+  @Benchmark
+  public TrieList trieInsert() {
+    return trieList.insert(nextIndex(), value);
+  }
+
+  @Benchmark
+  public Object arrayListInsert() {
+    int i = nextIndex();
+    arrayList.add(i, value);
+    return arrayList.remove(i);
+  }
+
+  @Benchmark
+  public Object[] cowInsert() {
+    int i = nextIndex();
+    Object[] a = new Object[size + 1];
+    System.arraycopy(array, 0, a, 0, i);
+    a[i] = value;
+    System.arraycopy(array, i, a, i + 1, size - i);
+    return a;
+  }
+
+  // remove at random index
+
+  @Benchmark
+  public TrieList trieRemove() {
+    return trieList.remove(nextIndex());
+  }
+
+  @Benchmark
+  public Object arrayListRemove() {
+    int i = nextIndex();
+    Object o = arrayList.remove(i);
+    arrayList.add(i, o);
+    return o;
+  }
+
+  @Benchmark
+  public Object[] cowRemove() {
+    int i = nextIndex();
+    Object[] a = new Object[size - 1];
+    System.arraycopy(array, 0, a, 0, i);
+    System.arraycopy(array, i + 1, a, i, size - i - 1);
+    return a;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(TrieListBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build()).run();
+  }
+
+}
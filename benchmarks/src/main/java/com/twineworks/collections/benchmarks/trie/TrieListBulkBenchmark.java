@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.benchmarks.trie;
+
+import com.twineworks.collections.trie.TrieList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Whole-list operations on lists of a given size.
+ *
+ * Slices take the middle half of the list, concatenation appends a list of
+ * the same size, iteration visits every element. Scores are per operation,
+ * divide by size for the cost per element.
+ *
+ * Run main() or pass -prof gc to report allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class TrieListBulkBenchmark {
+
+  @Param({"1", "64", "1000", "100000", "10000000"})
+  public int size;
+
+  private TrieList trieList;
+  private ArrayList<Object> arrayList;
+  private Object[] array;
+
+  private int sliceStart;
+  private int sliceEnd;
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    Object[] items = new Object[size];
+    for (int i = 0; i < size; i++) {
+      items[i] = i;
+    }
+
+    trieList = TrieList.empty().addAll(items);
+    arrayList = new ArrayList<>(Arrays.asList(items));
+    array = items;
+
+    sliceStart = size / 4;
+    sliceEnd = size - size / 4;
+  }
+
+  // slice
+
+  @Benchmark
+  public TrieList trieSlice() {
+    return trieList.slice(sliceStart, sliceEnd);
+  }
+
+  @Benchmark
+  public List<Object> arrayListSlice() {
+    return new ArrayList<>(arrayList.subList(sliceStart, sliceEnd));
+  }
+
+  @Benchmark
+  public Object[] cowSlice() {
+    return Arrays.copyOfRange(array, sliceStart, sliceEnd);
+  }
+
+  // concatenation
+
+  @Benchmark
+  public TrieList trieAddAll() {
+    return trieList.addAll(trieList);
+  }
+
+  @Benchmark
+  public List<Object> arrayListAddAll() {
+    ArrayList<Object> ret = new ArrayList<>(size * 2);
+    ret.addAll(arrayList);
+    ret.addAll(arrayList);
+    return ret;
+  }
+
+  @Benchmark
+  public Object[] cowAddAll() {
+    Object[] a = Arrays.copyOf(array, size * 2);
+    System.arraycopy(array, 0, a, size, size);
+    return a;
+  }
+
+  // conversion to array
+
+  @Benchmark
+  public Object[] trieToArray() {
+    return trieList.toArray();
+  }
+
+  @Benchmark
+  public Object[] arrayListToArray() {
+    return arrayList.toArray();
+  }
+
+  // iteration
+
+  @Benchmark
+  public void trieIterator(Blackhole bh) {
+    Iterator<?> i = trieList.sliceIterator(0, size);
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void trieReverseIterator(Blackhole bh) {
+    Iterator<?> i = trieList.reverseSliceIterator(0, size);
+    while (i.hasNext()) {
+      bh.consume(i.next());
+    }
+  }
+
+  @Benchmark
+  public void arrayListIterator(Blackhole bh) {
+    for (Object o : arrayList) {
+      bh.consume(o);
+    }
+  }
+
+  @Benchmark
+  public void arrayListReverseIterator(Blackhole bh) {
+    for (int i = size - 1; i >= 0; i--) {
+      bh.consume(arrayList.get(i));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(TrieListBulkBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build()).run();
+  }
+
+}
@@ -71,6 +71,19 @@ public class Batch<E> {
     return returnValue;
   }
 
+  // queued elements are data[start()] to data[end()-1]
+  public int start() {
+    return consumeIdx;
+  }
+
+  public int end() {
+    return idx;
+  }
+
+  public int size() {
+    return idx - consumeIdx;
+  }
+
   public boolean isEmpty() {
     return idx == 0;
   }
@@ -93,7 +93,7 @@ public class ChampMap<K, V> {
     for (K key : keys) {
       final int keyHash = key.hashCode();
 
-      newRootNode = rootNode.remove(null, key, keyHash, 0, ur);
+      newRootNode = newRootNode.remove(null, key, keyHash, 0, ur);
 
       if (ur.isModified()) {
         final int valHash = ur.getReplacedValue().hashCode();
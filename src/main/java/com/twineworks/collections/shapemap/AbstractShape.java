@@ -0,0 +1,353 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Storage layout and transitions shared by all shape implementations.
+ * Subclasses decide how keys are resolved to indexes.
+ */
+abstract class AbstractShape implements Shape {
+
+  // which key is stored in which index, index 0 is never used
+  // indexes of removed keys remain unused
+  final ShapeKey[] slots;
+
+  // the shape this shape has been derived from, null for interned shapes
+  // keeps the path from the interned shape to this shape alive
+  final Shape parent;
+  private final int depth;
+
+  // which other shapes have been derived from this shape, held weakly
+  // keyed by the added key for single key extensions, and by the set of keys
+  // added or removed otherwise; added keys are never part of this shape and
+  // removed keys always are, so extensions and reductions cannot collide
+  // created on first transition, most shapes never transition
+  private volatile ConcurrentHashMap<Object, TransitionRef> transitions;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<AbstractShape, ConcurrentHashMap> TRANSITIONS =
+    AtomicReferenceFieldUpdater.newUpdater(AbstractShape.class, ConcurrentHashMap.class, "transitions");
+
+  // transitions to shapes no longer in use are reclaimed by the garbage collector
+  private static final ReferenceQueue<Shape> reclaimed = new ReferenceQueue<>();
+  // number of transitions currently registered across all shapes
+  private static final AtomicInteger transitionCount = new AtomicInteger();
+  // all registered transitions, keeps them reachable until they are enqueued and counted
+  // down, even if the shape owning them is reclaimed in the same cycle as their target
+  private static final Set<TransitionRef> registered = ConcurrentHashMap.newKeySet();
+
+  // a transition knows its entry, so it can remove exactly that once reclaimed
+  private static final class TransitionRef extends WeakReference<Shape> {
+
+    private final ConcurrentHashMap<Object, TransitionRef> owner;
+    private final Object change;
+
+    private TransitionRef(Shape shape, ConcurrentHashMap<Object, TransitionRef> owner, Object change) {
+      super(shape, reclaimed);
+      this.owner = owner;
+      this.change = change;
+    }
+  }
+
+  // well spread hash codes for identity keyed tables of shapes
+  private static final AtomicInteger nextHash = new AtomicInteger();
+  private final int hash = nextHash.getAndAdd(0x61c88647);
+
+  AbstractShape(Shape parent, ShapeKey[] slots){
+    this.parent = parent;
+    this.depth = parent == null ? 0 : parent.depth() + 1;
+    this.slots = slots;
+  }
+
+  static ShapeKey[] slotsFor(Set<ShapeKey> keys){
+    ShapeKey[] slots = new ShapeKey[keys.size()+1];
+    int i = 1;
+    for (ShapeKey key : keys) {
+      slots[i] = key;
+      i+=1;
+    }
+    return slots;
+  }
+
+  // a fresh mutable copy of the keys in this shape
+  abstract HashSet<ShapeKey> copyKeys();
+
+  @Override
+  public int depth() {
+    return depth;
+  }
+
+  @Override
+  public boolean isDictionary() {
+    return false;
+  }
+
+  // shapes are compared by identity
+  @Override
+  public final int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public ShapeKey keyAt(int idx) {
+    return idx < slots.length ? slots[idx] : null;
+  }
+
+  // whether every key of this shape is stored at the same index in other,
+  // storage of this shape can then be copied to storage of other as is
+  final boolean isPrefixOf(AbstractShape other){
+    final ShapeKey[] slots = this.slots;
+    final ShapeKey[] otherSlots = other.slots;
+    if (slots.length > otherSlots.length) return false;
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] != null && slots[i] != otherSlots[i]) return false;
+    }
+    return true;
+  }
+
+  // the Shape interface declares the map parameters raw
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void init(ShapeMap m) {
+    m.storage = new Object[slots.length*2];
+    m.presence = 0L;
+    m.presenceExt = null;
+    m.ensurePresenceCapacity();
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void ensureCapacity(ShapeMap m) {
+
+    int targetLen = slots.length;
+    int currentLen = m.storage.length;
+    Object[] s = m.storage;
+
+    if (currentLen < targetLen){
+      Object[] a = new Object[targetLen*2];
+      System.arraycopy(s, 0, a, 0, s.length);
+      m.storage = a;
+      m.ensurePresenceCapacity();
+    }
+
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void initConst(ConstShapeMap m) {
+    m.storage = new Object[slots.length];
+  }
+
+  static int transitionCount(){
+    return transitionCount.get();
+  }
+
+  // removes transitions to reclaimed shapes, cost is proportional to their number
+  static void purgeTransitions(){
+    Reference<? extends Shape> r;
+    while ((r = reclaimed.poll()) != null){
+      TransitionRef t = (TransitionRef) r;
+      t.owner.remove(t.change, t);
+      unregister(t);
+    }
+  }
+
+  // counts a transition down exactly once, whichever path drops it first
+  private static void unregister(TransitionRef t){
+    if (registered.remove(t)){
+      transitionCount.decrementAndGet();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private ConcurrentHashMap<Object, TransitionRef> transitions(){
+    ConcurrentHashMap<Object, TransitionRef> m = transitions;
+    if (m == null){
+      TRANSITIONS.compareAndSet(this, null, new ConcurrentHashMap<>(4));
+      m = transitions;
+    }
+    return m;
+  }
+
+  // the shape registered for given change, null if there is none
+  private Shape transitionTo(Object change){
+
+    ConcurrentHashMap<Object, TransitionRef> m = transitions;
+    if (m == null) return null;
+
+    TransitionRef ref = m.get(change);
+    if (ref == null) return null;
+
+    Shape shape = ref.get();
+    if (shape == null && m.remove(change, ref)){
+      unregister(ref);
+    }
+    return shape;
+
+  }
+
+  // registers a transition to a newly created shape unless the maximum amount of
+  // transitions is reached, threads racing to create the same transition agree on
+  // the first shape registered
+  private Shape register(Object change, Shape shape){
+
+    purgeTransitions();
+
+    if (transitionCount.incrementAndGet() > Shapes.maxTransitions()){
+      // shape stays unregistered, and is not shared with other maps making the same change
+      transitionCount.decrementAndGet();
+      return shape;
+    }
+
+    ConcurrentHashMap<Object, TransitionRef> m = transitions();
+    TransitionRef ref = new TransitionRef(shape, m, change);
+    registered.add(ref);
+
+    for (;;){
+
+      TransitionRef existing = m.putIfAbsent(change, ref);
+      if (existing == null) return shape;
+
+      Shape existingShape = existing.get();
+      if (existingShape != null){
+        unregister(ref);
+        return existingShape;
+      }
+
+      // existing transition has been reclaimed, take its place
+      if (m.replace(change, existing, ref)){
+        unregister(existing);
+        return shape;
+      }
+
+    }
+
+  }
+
+  @Override
+  public Shape extendBy(ShapeKey key) {
+
+    if (idxFor(key) > 0) return this;
+
+    // existing transition available?
+    Shape shape = transitionTo(key);
+    if (shape != null) return shape;
+
+    // no existing transition available, copy shape and add the key to the copy,
+    // keeping existing indexes as they are
+    ShapeKey[] newSlots = Arrays.copyOf(slots, slots.length + 1);
+    newSlots[slots.length] = key;
+
+    HashSet<ShapeKey> toKeys = copyKeys();
+    toKeys.add(key);
+
+    return register(key, Shapes.createShape(this, toKeys, newSlots));
+
+  }
+
+  @Override
+  public Shape extendBy(Set<ShapeKey> byKeys) {
+
+    // keys not yet in this shape, in iteration order of byKeys
+    LinkedHashSet<ShapeKey> added = null;
+    ShapeKey single = null;
+    for (ShapeKey k : byKeys) {
+      if (idxFor(k) > 0 || k == single) continue;
+      if (single == null){
+        single = k;
+      }
+      else {
+        if (added == null){
+          added = new LinkedHashSet<>();
+          added.add(single);
+        }
+        added.add(k);
+      }
+    }
+
+    if (single == null) return this;
+    if (added == null) return extendBy(single);
+
+    // existing transition available?
+    Shape shape = transitionTo(added);
+    if (shape != null) return shape;
+
+    // no existing transition available, copy shape and add keys to the copy,
+    // keeping existing indexes as they are
+    ShapeKey[] newSlots = Arrays.copyOf(slots, slots.length + added.size());
+    int idx = slots.length;
+    for (ShapeKey newKey : added) {
+      newSlots[idx] = newKey;
+      idx += 1;
+    }
+
+    HashSet<ShapeKey> toKeys = copyKeys();
+    toKeys.addAll(added);
+
+    return register(added, Shapes.createShape(this, toKeys, newSlots));
+
+  }
+
+  @Override
+  public Shape shrinkBy(Set<ShapeKey> byKeys) {
+
+    // keys in this shape to remove
+    HashSet<ShapeKey> removed = new HashSet<>();
+    for (ShapeKey k : byKeys) {
+      if (idxFor(k) > 0) removed.add(k);
+    }
+
+    if (removed.isEmpty()) return this;
+
+    // existing transition available?
+    Shape shape = transitionTo(removed);
+    if (shape != null) return shape;
+
+    // no existing transition available, copy shape and skip keys in the copy,
+    // keeping existing indexes as they are
+    ShapeKey[] newSlots = slots.clone();
+    for (ShapeKey rmKey : removed) {
+      newSlots[idxFor(rmKey)] = null;
+    }
+
+    HashSet<ShapeKey> toKeys = copyKeys();
+    toKeys.removeAll(removed);
+
+    return register(removed, Shapes.createShape(this, toKeys, newSlots));
+
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.*;
+
+/**
+ * Accesses a fixed list of keys in ShapeMaps, resolving all of them with a
+ * single shape check per map.
+ *
+ * The group caches the storage indexes of its keys per shape. A RecordView
+ * bound to a map looks them up once, and then reads and writes the keys
+ * by their position in the group.
+ *
+ * Groups are safe to share between threads, typically as static constants.
+ * Views are not, each thread uses views of its own.
+ */
+public final class AccessorGroup<T> {
+
+  private final ShapeKey[] keys;
+  private final ShapePlans plans;
+
+  AccessorGroup(Collection<ShapeKey> keys){
+    this.keys = keys.toArray(new ShapeKey[0]);
+    for (ShapeKey key : this.keys) {
+      Objects.requireNonNull(key);
+    }
+    if (new HashSet<>(keys).size() != this.keys.length){
+      throw new IllegalArgumentException("keys must be distinct");
+    }
+    this.plans = new ShapePlans(this.keys);
+  }
+
+  public int size(){
+    return keys.length;
+  }
+
+  // the key at position i of the group
+  public ShapeKey key(int i){
+    return keys[i];
+  }
+
+  // positions of keys in the group
+  public List<ShapeKey> keys(){
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  // a view of no map, bind it to maps before accessing them
+  public RecordView<T> view(){
+    return new RecordView<>(this);
+  }
+
+  // a view bound to given map
+  public RecordView<T> view(ShapeMap<T> m){
+    RecordView<T> v = new RecordView<>(this);
+    v.bind(m);
+    return v;
+  }
+
+  int[] planFor(Shape s){
+    return plans.planFor(s);
+  }
+
+}
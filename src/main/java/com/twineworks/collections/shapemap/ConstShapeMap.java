@@ -25,7 +25,11 @@
 
 package com.twineworks.collections.shapemap;
 
+import com.twineworks.collections.batch.Batch;
+
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 /**
  *  A shape map whose shape can never change after construction.
  *
@@ -34,12 +38,21 @@ import java.util.*;
  *  - All shape keys are present as keys. There is no separate tracking of shape and keyset.
  *  - If a key is not set, its value is null.
  *  - There is no insertion order of keys, therefore key order is not defined.
+ *
+ *  Maps of a typed shape, see typedShape, store LONG and DOUBLE keys in
+ *  parallel primitive arrays. LongAccessors and DoubleAccessors read and write them
+ *  without boxing. All other access boxes and unboxes their values, which are never
+ *  null: setting null sets 0.
  */
 public class ConstShapeMap<T> implements Cloneable {
 
+
   public Shape shape;
   public Object[] storage = null;
 
+  // values of LONG and DOUBLE slots of typed shapes, null for plain shapes
+  PrimitiveSlots prims = null;
+
   public ConstShapeMap(){
     shape = Shapes.forKeySet(Collections.<ShapeKey>emptySet());
     shape.initConst(this);
@@ -51,6 +64,18 @@ public class ConstShapeMap<T> implements Cloneable {
     Object[] src = input.storage;
     this.storage = new Object[src.length];
     System.arraycopy(src, 0, this.storage, 0, src.length);
+    if (input.prims != null) this.prims = input.prims.copy();
+  }
+
+  // a map of given shape, typically a typed shape
+  // dictionary shapes belong to a single ShapeMap and cannot be shared
+  public ConstShapeMap(Shape shape){
+    Objects.requireNonNull(shape);
+    if (shape.isDictionary()){
+      throw new IllegalArgumentException("Cannot create a ConstShapeMap from a dictionary shape");
+    }
+    this.shape = shape;
+    shape.initConst(this);
   }
 
   public ConstShapeMap(Collection<ShapeKey> keys){
@@ -66,7 +91,7 @@ public class ConstShapeMap<T> implements Cloneable {
 
     for (ShapeKey key : keys) {
       int idx = shape.idxFor(key);
-      storage[idx] = map.get(key.toString());
+      storeAt(idx, map.get(key.toString()));
     }
 
   }
@@ -119,7 +144,7 @@ public class ConstShapeMap<T> implements Cloneable {
     for (int i = 0; i < keys.size(); i++) {
       ShapeKey key = keys.get(i);
       int idx = shape.idxFor(key);
-      storage[idx] = values.get(i);
+      storeAt(idx, values.get(i));
     }
 
   }
@@ -135,6 +160,54 @@ public class ConstShapeMap<T> implements Cloneable {
     return new PolymorphicAccessor<>(ShapeKey.get(k));
   }
 
+  // an accessor for a LONG slot of typed shapes
+  public static ConstShapeMap.LongAccessor longAccessor(ShapeKey k){
+    Objects.requireNonNull(k);
+    return new PolymorphicLongAccessor(k);
+  }
+
+  // convenience method
+  public static ConstShapeMap.LongAccessor longAccessor(String k){
+    Objects.requireNonNull(k);
+    return new PolymorphicLongAccessor(ShapeKey.get(k));
+  }
+
+  // an accessor for a DOUBLE slot of typed shapes
+  public static ConstShapeMap.DoubleAccessor doubleAccessor(ShapeKey k){
+    Objects.requireNonNull(k);
+    return new PolymorphicDoubleAccessor(k);
+  }
+
+  // convenience method
+  public static ConstShapeMap.DoubleAccessor doubleAccessor(String k){
+    Objects.requireNonNull(k);
+    return new PolymorphicDoubleAccessor(ShapeKey.get(k));
+  }
+
+  // a shape of given keys, storing each key in a slot of given type
+  // typed shapes are interned by keys and slot types, and are for ConstShapeMaps only
+  public static Shape typedShape(Map<ShapeKey, SlotType> types){
+    Objects.requireNonNull(types);
+    return Shapes.forTypedKeys(types);
+  }
+
+  // the value at index idx, boxing primitive slots
+  final Object valueAt(int idx){
+    final PrimitiveSlots p = prims;
+    if (p != null && p.types[idx] != PrimitiveSlots.OBJECT) return p.box(idx);
+    return storage[idx];
+  }
+
+  // stores v at index idx, unboxing it for primitive slots
+  final void storeAt(int idx, Object v){
+    final PrimitiveSlots p = prims;
+    if (p != null && p.types[idx] != PrimitiveSlots.OBJECT){
+      p.unbox(idx, v);
+      return;
+    }
+    storage[idx] = v;
+  }
+
   public int size() {
     return shape.size();
   }
@@ -157,7 +230,7 @@ public class ConstShapeMap<T> implements Cloneable {
 
     for (ShapeKey key : shape.keySet()) {
       int idx = shape.idxFor(key);
-      Object v = storage[idx];
+      Object v = valueAt(idx);
       if (Objects.equals(value, v)) return true;
     }
 
@@ -168,7 +241,7 @@ public class ConstShapeMap<T> implements Cloneable {
   @SuppressWarnings("unchecked")
   public T get(Object key) {
     int idx = shape.idxFor((ShapeKey)key);
-    return (T) storage[idx];
+    return (T) valueAt(idx);
   }
 
   // convenience method if performance is not an issue
@@ -203,8 +276,8 @@ public class ConstShapeMap<T> implements Cloneable {
 
     int idx = shape.idxFor(key);
     if (idx > 0){
-      T prev = (T) storage[idx];
-      storage[idx] = value;
+      T prev = (T) valueAt(idx);
+      storeAt(idx, value);
       return prev;
     }
     else{
@@ -224,8 +297,8 @@ public class ConstShapeMap<T> implements Cloneable {
 
     ShapeKey k = (ShapeKey) key;
     int idx = shape.idxFor(k);
-    T v = (T) storage[idx];
-    storage[idx] = null;
+    T v = (T) valueAt(idx);
+    storeAt(idx, null);
     return v;
 
   }
@@ -237,7 +310,7 @@ public class ConstShapeMap<T> implements Cloneable {
 
     int idx = shape.idxFor(key);
     if (idx > 0){
-      storage[idx] = value;
+      storeAt(idx, value);
     }
     else{
       throw new IllegalArgumentException("Can only access present fields");
@@ -260,12 +333,13 @@ public class ConstShapeMap<T> implements Cloneable {
 
   private void clearKeyData(ShapeKey k){
     int idx = shape.idxFor(k);
-    storage[idx] = null;
+    storeAt(idx, null);
   }
 
   public void clear() {
     // just clears the keys and values, does not change the shape
     Arrays.fill(storage, null);
+    if (prims != null) prims.clear();
 
   }
 
@@ -486,105 +560,454 @@ public class ConstShapeMap<T> implements Cloneable {
     return h;
   }
 
+  // accessors are safe to share between threads, typically as static constants
+  // the maps they access are not synchronized, each map must be confined to a thread
   public interface Accessor<T> {
     T get(ConstShapeMap<? extends T> shapeMap);
     T put(ConstShapeMap<? super T> shapeMap, T v);
     void set(ConstShapeMap<? super T> shapeMap, T v);
+
+    // gets the values of rows[from] to rows[to-1] into out[0] to out[to-from-1]
+    default void getAll(ConstShapeMap<? extends T>[] rows, int from, int to, Object[] out){
+      for (int i = from; i < to; i++) {
+        out[i - from] = get(rows[i]);
+      }
+    }
+
+    // gets the values of the queued rows into out, in queue order
+    @SuppressWarnings("unchecked")
+    default void getAll(Batch<? extends ConstShapeMap<? extends T>> rows, Object[] out){
+      Object[] data = rows.data;
+      for (int i = rows.start(); i < rows.end(); i++) {
+        out[i - rows.start()] = get((ConstShapeMap<? extends T>) data[i]);
+      }
+    }
+
+    // sets the values of rows[from] to rows[to-1] to values[0] to values[to-from-1]
+    default void setAll(ConstShapeMap<? super T>[] rows, int from, int to, T[] values){
+      for (int i = from; i < to; i++) {
+        set(rows[i], values[i - from]);
+      }
+    }
+
+    // sets the values of the queued rows to values, in queue order
+    @SuppressWarnings("unchecked")
+    default void setAll(Batch<? extends ConstShapeMap<? super T>> rows, T[] values){
+      Object[] data = rows.data;
+      for (int i = rows.start(); i < rows.end(); i++) {
+        set((ConstShapeMap<? super T>) data[i], values[i - rows.start()]);
+      }
+    }
+
+    // the operations below treat null values as not set
+    // all but getOrDefault require the key to be part of the map's shape
+    // accessors created by ConstShapeMap.accessor look up the key once
+    // the default implementations are built on get and set
+
+    // the value of the key, defaultValue if it is not set
+    default T getOrDefault(ConstShapeMap<? extends T> shapeMap, T defaultValue){
+      T v = get(shapeMap);
+      return v != null ? v : defaultValue;
+    }
+
+    // sets the value unless it is set, returns the previous value
+    @SuppressWarnings("unchecked")
+    default T putIfAbsent(ConstShapeMap<? super T> shapeMap, T v){
+      T prev = get((ConstShapeMap<? extends T>) (ConstShapeMap<?>) shapeMap);
+      if (prev == null) set(shapeMap, v);
+      return prev;
+    }
+
+    // replaces the value with the result of fn applied to it, returns the new value
+    @SuppressWarnings("unchecked")
+    default T compute(ConstShapeMap<? super T> shapeMap, Function<? super T, ? extends T> fn){
+      T v = fn.apply(get((ConstShapeMap<? extends T>) (ConstShapeMap<?>) shapeMap));
+      set(shapeMap, v);
+      return v;
+    }
+
+    // sets v if the value is not set, or the result of fn applied to the value and v otherwise
+    // returns the new value
+    @SuppressWarnings("unchecked")
+    default T merge(ConstShapeMap<? super T> shapeMap, T v, BiFunction<? super T, ? super T, ? extends T> fn){
+      Objects.requireNonNull(v);
+      T prev = get((ConstShapeMap<? extends T>) (ConstShapeMap<?>) shapeMap);
+      T merged = prev == null ? v : fn.apply(prev, v);
+      set(shapeMap, merged);
+      return merged;
+    }
+
+    // adds delta to a numeric value, taking no value as 0, and stores the sum as a Long
+    // returns the sum
+    @SuppressWarnings("unchecked")
+    default long addLong(ConstShapeMap<? super T> shapeMap, long delta){
+      Object prev = get((ConstShapeMap<? extends T>) (ConstShapeMap<?>) shapeMap);
+      long sum = prev == null ? delta : ((Number) prev).longValue() + delta;
+      set(shapeMap, (T) (Object) sum);
+      return sum;
+    }
+
+    // adds delta to a numeric value, taking no value as 0, and stores the sum as a Double
+    // returns the sum
+    @SuppressWarnings("unchecked")
+    default double addDouble(ConstShapeMap<? super T> shapeMap, double delta){
+      Object prev = get((ConstShapeMap<? extends T>) (ConstShapeMap<?>) shapeMap);
+      double sum = prev == null ? delta : ((Number) prev).doubleValue() + delta;
+      set(shapeMap, (T) (Object) sum);
+      return sum;
+    }
   }
 
   private static class PolymorphicAccessor<T> implements ConstShapeMap.Accessor<T> {
 
     private final ShapeKey k;
-    private Shape shape1;
 
-    private int idx1 = 0;
+    // inline cache, the entry is immutable and written as a whole
+    private ShapeIndex e1;
+
+    // shapes seen after the inline slot is taken
+    private volatile ShapeIndexCache cache;
 
     public PolymorphicAccessor(ShapeKey k) {
       this.k = k;
     }
 
-    @SuppressWarnings("unchecked")
-    public T get(ConstShapeMap<? extends T> shapeMap){
+    // index of k in shape s, 0 if k is not part of s
+    private int idxFor(Shape s){
+
+      ShapeIndex e = e1;
+      if (e != null && e.shape == s) return e.idx;
+      return learn(s);
+
+    }
+
+    // learns the index for one shape inline, further shapes go to the cache
+    private int learn(Shape s){
 
-      final Shape s = shapeMap.shape;
-      final Object[] storage = shapeMap.storage;
+      ShapeIndexCache c = cache;
+      if (c != null){
+        int idx = c.get(s);
+        if (idx >= 0) return idx;
+      }
+
+      int idx = s.idxFor(k);
 
-      if (s == shape1){
-        return (T) storage[idx1];
+      // threads learning concurrently may overwrite each other's entry
+      // that only costs a later miss, entries are always consistent
+      if (e1 == null){
+        e1 = new ShapeIndex(s, idx);
       }
-      else if (shape1 == null){
-        idx1 = s.idxFor(k);
-        shape1 = s;
-        return (T) storage[idx1];
+      else {
+        if (c == null){
+          cache = c = new ShapeIndexCache();
+        }
+        c.put(s, idx);
       }
-      else{
-        return (T) storage[s.idxFor(k)];
+
+      return idx;
+    }
+
+    // index of k in given map, k must be part of its shape
+    private int existingIdxFor(ConstShapeMap<?> m){
+      int idx = idxFor(m.shape);
+      if (idx == 0){
+        throw new IllegalArgumentException("Can only access existing fields");
       }
+      return idx;
+    }
 
+    @SuppressWarnings("unchecked")
+    public T get(ConstShapeMap<? extends T> shapeMap){
+      // storage at index 0 is never written
+      return (T) shapeMap.valueAt(idxFor(shapeMap.shape));
     }
 
     @SuppressWarnings("unchecked")
     public T put(ConstShapeMap<? super T> shapeMap, T v){
 
-      final Shape s = shapeMap.shape;
-      final Object[] storage = shapeMap.storage;
+      final int idx = existingIdxFor(shapeMap);
 
-      if (s == shape1){
-        T o = (T) storage[idx1];
-        storage[idx1] = v;
-        return o;
-      }
+      T o = (T) shapeMap.valueAt(idx);
+      shapeMap.storeAt(idx, v);
+      return o;
 
-      if (shape1 == null){
-        idx1 = s.idxFor(k);
-        shape1 = s;
-        T o = (T) shapeMap.storage[idx1];
-        shapeMap.storage[idx1] = v;
-        return o;
-      }
+    }
+
+    public void set(ConstShapeMap<? super T> shapeMap, T v){
+      shapeMap.storeAt(existingIdxFor(shapeMap), v);
+    }
 
-      int idx = shapeMap.shape.idxFor(k);
-      // key present?
-      if (idx > 0) {
-        T o = (T) storage[idx];
-        shapeMap.storage[idx] = v;
-        return o;
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getOrDefault(ConstShapeMap<? extends T> shapeMap, T defaultValue){
+      // storage at index 0 is never written
+      T v = (T) shapeMap.valueAt(idxFor(shapeMap.shape));
+      return v != null ? v : defaultValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T putIfAbsent(ConstShapeMap<? super T> shapeMap, T v){
+      final int idx = existingIdxFor(shapeMap);
+      T prev = (T) shapeMap.valueAt(idx);
+      if (prev == null) shapeMap.storeAt(idx, v);
+      return prev;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T compute(ConstShapeMap<? super T> shapeMap, Function<? super T, ? extends T> fn){
+      final int idx = existingIdxFor(shapeMap);
+      T v = fn.apply((T) shapeMap.valueAt(idx));
+      shapeMap.storeAt(idx, v);
+      return v;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T merge(ConstShapeMap<? super T> shapeMap, T v, BiFunction<? super T, ? super T, ? extends T> fn){
+      Objects.requireNonNull(v);
+      final int idx = existingIdxFor(shapeMap);
+      T prev = (T) shapeMap.valueAt(idx);
+      T merged = prev == null ? v : fn.apply(prev, v);
+      shapeMap.storeAt(idx, merged);
+      return merged;
+    }
+
+    @Override
+    public long addLong(ConstShapeMap<? super T> shapeMap, long delta){
+      final int idx = existingIdxFor(shapeMap);
+      Object prev = shapeMap.valueAt(idx);
+      long sum = prev == null ? delta : ((Number) prev).longValue() + delta;
+      shapeMap.storeAt(idx, sum);
+      return sum;
+    }
+
+    @Override
+    public double addDouble(ConstShapeMap<? super T> shapeMap, double delta){
+      final int idx = existingIdxFor(shapeMap);
+      Object prev = shapeMap.valueAt(idx);
+      double sum = prev == null ? delta : ((Number) prev).doubleValue() + delta;
+      shapeMap.storeAt(idx, sum);
+      return sum;
+    }
+
+    @Override
+    public void getAll(ConstShapeMap<? extends T>[] rows, int from, int to, Object[] out){
+      gather(rows, from, to, out);
+    }
+
+    @Override
+    public void getAll(Batch<? extends ConstShapeMap<? extends T>> rows, Object[] out){
+      gather(rows.data, rows.start(), rows.end(), out);
+    }
+
+    @Override
+    public void setAll(ConstShapeMap<? super T>[] rows, int from, int to, T[] values){
+      scatter(rows, from, to, values);
+    }
+
+    @Override
+    public void setAll(Batch<? extends ConstShapeMap<? super T>> rows, T[] values){
+      scatter(rows.data, rows.start(), rows.end(), values);
+    }
+
+    // copies values of rows to out, looking up the index once per run of rows of the same shape
+    private void gather(Object[] rows, int from, int to, Object[] out){
+
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
+        ConstShapeMap<?> m = (ConstShapeMap<?>) rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = idxFor(s);
+        }
+        // storage at index 0 is never written
+        out[i - from] = m.valueAt(idx);
       }
-      // shape needs extending
-      else{
-        throw new IllegalArgumentException("Can only access existing fields");
+
+    }
+
+    // copies values to rows, looking up the index once per run of rows of the same shape
+    private void scatter(Object[] rows, int from, int to, Object[] values){
+
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
+        ConstShapeMap<?> m = (ConstShapeMap<?>) rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = existingIdxFor(m);
+        }
+        m.storeAt(idx, values[i - from]);
       }
 
     }
 
-    public void set(ConstShapeMap<? super T> shapeMap, T v){
+  }
+
+  // reads and writes a LONG slot of typed shapes without boxing
+  // accessing a key that is not a LONG slot of the map's shape throws IllegalArgumentException
+  public interface LongAccessor {
+    long get(ConstShapeMap<?> shapeMap);
+    void set(ConstShapeMap<?> shapeMap, long v);
+
+    // adds delta to the value, returns the sum
+    long add(ConstShapeMap<?> shapeMap, long delta);
 
-      final Shape s = shapeMap.shape;
-      final Object[] storage = shapeMap.storage;
+    // gets the values of rows[from] to rows[to-1] into out[0] to out[to-from-1]
+    void getAll(ConstShapeMap<?>[] rows, int from, int to, long[] out);
+  }
+
+  // reads and writes a DOUBLE slot of typed shapes without boxing
+  // accessing a key that is not a DOUBLE slot of the map's shape throws IllegalArgumentException
+  public interface DoubleAccessor {
+    double get(ConstShapeMap<?> shapeMap);
+    void set(ConstShapeMap<?> shapeMap, double v);
+
+    // adds delta to the value, returns the sum
+    double add(ConstShapeMap<?> shapeMap, double delta);
+
+    // gets the values of rows[from] to rows[to-1] into out[0] to out[to-from-1]
+    void getAll(ConstShapeMap<?>[] rows, int from, int to, double[] out);
+  }
 
-      if (s == shape1){
-        storage[idx1] = v;
-        return;
+  // caches the index of a key in shapes where it is stored in a slot of given type
+  private static abstract class TypedSlotAccessor {
+
+    private final ShapeKey k;
+    private final byte type;
+
+    // inline cache, the entry is immutable and written as a whole
+    private ShapeIndex e1;
+
+    // shapes seen after the inline slot is taken
+    private volatile ShapeIndexCache cache;
+
+    TypedSlotAccessor(ShapeKey k, SlotType type) {
+      this.k = k;
+      this.type = (byte) type.ordinal();
+    }
+
+    // index of k in given map, k must be a slot of the accessor's type
+    final int idxFor(ConstShapeMap<?> m){
+
+      ShapeIndex e = e1;
+      int idx = e != null && e.shape == m.shape ? e.idx : learn(m);
+      if (idx == 0){
+        throw new IllegalArgumentException("Can only access existing fields of type "+SlotType.values()[type]);
       }
+      return idx;
+
+    }
+
+    // learns the index for one shape inline, further shapes go to the cache
+    // remembers 0 for shapes in which k is not a slot of the accessor's type
+    private int learn(ConstShapeMap<?> m){
 
-      if (shape1 == null){
-        idx1 = s.idxFor(k);
-        shape1 = s;
-        shapeMap.storage[idx1] = v;
-        return;
+      Shape s = m.shape;
+      ShapeIndexCache c = cache;
+      if (c != null){
+        int idx = c.get(s);
+        if (idx >= 0) return idx;
       }
 
       int idx = s.idxFor(k);
-      // key present?
-      if (idx > 0) {
-        shapeMap.storage[idx] = v;
+      PrimitiveSlots p = m.prims;
+      if (p == null || p.types[idx] != type){
+        idx = 0;
       }
-      // shape needs extending
-      else{
-        throw new IllegalArgumentException("Can only access existing fields");
+
+      // threads learning concurrently may overwrite each other's entry
+      // that only costs a later miss, entries are always consistent
+      if (e1 == null){
+        e1 = new ShapeIndex(s, idx);
+      }
+      else {
+        if (c == null){
+          cache = c = new ShapeIndexCache();
+        }
+        c.put(s, idx);
       }
 
+      return idx;
+    }
 
+  }
+
+  private static final class PolymorphicLongAccessor extends TypedSlotAccessor implements ConstShapeMap.LongAccessor {
+
+    PolymorphicLongAccessor(ShapeKey k) {
+      super(k, SlotType.LONG);
+    }
+
+    public long get(ConstShapeMap<?> shapeMap){
+      final int idx = idxFor(shapeMap);
+      return shapeMap.prims.longs[idx];
+    }
+
+    public void set(ConstShapeMap<?> shapeMap, long v){
+      final int idx = idxFor(shapeMap);
+      shapeMap.prims.longs[idx] = v;
+    }
+
+    public long add(ConstShapeMap<?> shapeMap, long delta){
+      final int idx = idxFor(shapeMap);
+      final long[] longs = shapeMap.prims.longs;
+      return longs[idx] += delta;
+    }
+
+    // looks up the index once per run of rows of the same shape
+    public void getAll(ConstShapeMap<?>[] rows, int from, int to, long[] out){
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
+        ConstShapeMap<?> m = rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = idxFor(m);
+        }
+        out[i - from] = m.prims.longs[idx];
+      }
+    }
+
+  }
+
+  private static final class PolymorphicDoubleAccessor extends TypedSlotAccessor implements ConstShapeMap.DoubleAccessor {
+
+    PolymorphicDoubleAccessor(ShapeKey k) {
+      super(k, SlotType.DOUBLE);
+    }
+
+    public double get(ConstShapeMap<?> shapeMap){
+      final int idx = idxFor(shapeMap);
+      return shapeMap.prims.doubles[idx];
+    }
+
+    public void set(ConstShapeMap<?> shapeMap, double v){
+      final int idx = idxFor(shapeMap);
+      shapeMap.prims.doubles[idx] = v;
+    }
+
+    public double add(ConstShapeMap<?> shapeMap, double delta){
+      final int idx = idxFor(shapeMap);
+      final double[] doubles = shapeMap.prims.doubles;
+      return doubles[idx] += delta;
+    }
+
+    // looks up the index once per run of rows of the same shape
+    public void getAll(ConstShapeMap<?>[] rows, int from, int to, double[] out){
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
+        ConstShapeMap<?> m = rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = idxFor(m);
+        }
+        out[i - from] = m.prims.doubles[idx];
+      }
     }
 
   }
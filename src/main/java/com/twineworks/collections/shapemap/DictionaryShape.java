@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.twineworks.collections.shapemap;
+
+import java.util.*;
+
+/**
+ * A mutable shape owned by a single map.
+ *
+ * Maps switch to a dictionary shape once they have gone through too many
+ * transitions or hold too many keys. Extending a dictionary shape adds keys
+ * in place and returns the same shape, so such maps stop creating shared
+ * shapes. Dictionary shapes are never interned, never transition, and are
+ * never remembered by accessors.
+ */
+final class DictionaryShape implements Shape {
+
+  // which key is stored in which index, index 0 is never used
+  // indexes of removed keys remain unused, slots from length on are free
+  private ShapeKey[] slots;
+  private int length;
+  private int size;
+
+  // index: open addressing table over key ids, keys are compared by identity
+  // idxKeys[i] is a key in the shape, and idxSlots[i] its index in storage
+  private ShapeKey[] idxKeys;
+  private int[] idxSlots;
+  private int idxMask;
+
+  // takes over the layout of given shape, so storage laid out for it stays valid
+  DictionaryShape(AbstractShape source){
+    this(source.slots, source.slots.length);
+  }
+
+  private DictionaryShape(ShapeKey[] slots, int length){
+    this.slots = Arrays.copyOf(slots, Math.max(length * 2, 16));
+    this.length = length;
+    reindex();
+  }
+
+  // a copy for another map
+  DictionaryShape copy(){
+    return new DictionaryShape(slots, length);
+  }
+
+  private void reindex(){
+
+    int n = 0;
+    for (int i = 1; i < length; i++) {
+      if (slots[i] != null) n++;
+    }
+    size = n;
+
+    int capacity = Integer.highestOneBit(Math.max(n, 4) * 4 - 1);
+    idxKeys = new ShapeKey[capacity];
+    idxSlots = new int[capacity];
+    idxMask = capacity - 1;
+
+    for (int i = 1; i < length; i++) {
+      if (slots[i] != null) index(slots[i], i);
+    }
+
+  }
+
+  private void index(ShapeKey k, int idx){
+    int pos = k.id & idxMask;
+    while (idxKeys[pos] != null){
+      pos = (pos + 1) & idxMask;
+    }
+    idxKeys[pos] = k;
+    idxSlots[pos] = idx;
+  }
+
+  private void add(ShapeKey k){
+
+    if (length == slots.length){
+      slots = Arrays.copyOf(slots, length * 2);
+    }
+    slots[length] = k;
+    size += 1;
+
+    // keep the index at most half full
+    if (size * 2 > idxKeys.length){
+      length += 1;
+      reindex();
+    }
+    else {
+      index(k, length);
+      length += 1;
+    }
+
+  }
+
+  @Override
+  public boolean isDictionary() {
+    return true;
+  }
+
+  @Override
+  public int depth() {
+    return 0;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void init(ShapeMap m) {
+    m.storage = new Object[length * 2];
+    m.presence = 0L;
+    m.presenceExt = null;
+    m.ensurePresenceCapacity();
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void ensureCapacity(ShapeMap m) {
+    if (m.storage.length < length){
+      // grows geometrically, keys are added one by one
+      m.storage = Arrays.copyOf(m.storage, Math.max(length, m.storage.length * 2));
+      m.ensurePresenceCapacity();
+    }
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void initConst(ConstShapeMap m) {
+    m.storage = new Object[length];
+  }
+
+  @Override
+  public int idxFor(ShapeKey k) {
+    if (k == null) return 0;
+    final ShapeKey[] idxKeys = this.idxKeys;
+    final int mask = idxMask;
+    int pos = k.id & mask;
+    while (true){
+      ShapeKey c = idxKeys[pos];
+      if (c == k) return idxSlots[pos];
+      if (c == null) return 0;
+      pos = (pos + 1) & mask;
+    }
+  }
+
+  @Override
+  public ShapeKey keyAt(int idx) {
+    return idx < length ? slots[idx] : null;
+  }
+
+  @Override
+  public Shape extendBy(ShapeKey key) {
+    if (idxFor(key) == 0){
+      add(key);
+    }
+    return this;
+  }
+
+  @Override
+  public Shape extendBy(Set<ShapeKey> byKeys) {
+    for (ShapeKey key : byKeys) {
+      extendBy(key);
+    }
+    return this;
+  }
+
+  @Override
+  public Shape shrinkBy(Set<ShapeKey> byKeys) {
+    boolean changed = false;
+    for (ShapeKey key : byKeys) {
+      int idx = idxFor(key);
+      if (idx > 0){
+        slots[idx] = null;
+        changed = true;
+      }
+    }
+    if (changed) reindex();
+    return this;
+  }
+
+  @Override
+  public Set<ShapeKey> keySet() {
+    return new AbstractSet<ShapeKey>() {
+
+      @Override
+      public Iterator<ShapeKey> iterator() {
+        return new Iterator<ShapeKey>() {
+
+          private int i = advance(1);
+
+          private int advance(int from){
+            while (from < length && slots[from] == null){
+              from += 1;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return i < length;
+          }
+
+          @Override
+          public ShapeKey next() {
+            if (i >= length) throw new NoSuchElementException();
+            ShapeKey k = slots[i];
+            i = advance(i + 1);
+            return k;
+          }
+
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return o instanceof ShapeKey && idxFor((ShapeKey) o) > 0;
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+}
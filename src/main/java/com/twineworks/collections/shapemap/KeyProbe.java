@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Looks up interned keys by characters that are not a String yet.
+ *
+ * A probe hashes its input like String.hashCode() would, and compares
+ * equal to the String of the same characters, so it can be passed to
+ * the intern table in place of a String. UTF-8 input is decoded on the
+ * fly, nothing is allocated. Probes are reused, one per thread.
+ */
+final class KeyProbe {
+
+  // input, exactly one of these is set while looking up
+  private CharSequence chars;
+  private byte[] bytes;
+  private ByteBuffer buffer;
+  private int off;
+  private int len;
+
+  // hash and length of the input as UTF-16 chars
+  private int hash;
+  private int length;
+
+  // prepares lookup of given chars
+  void set(CharSequence chars){
+    this.chars = chars;
+    int h = 0;
+    for (int i = 0, n = chars.length(); i < n; i++) {
+      h = 31 * h + chars.charAt(i);
+    }
+    hash = h;
+    length = chars.length();
+  }
+
+  // prepares lookup of given UTF-8 bytes, false if they are malformed
+  boolean set(byte[] bytes, int off, int len){
+    this.bytes = bytes;
+    this.off = off;
+    this.len = len;
+    return walk(null);
+  }
+
+  // prepares lookup of given UTF-8 bytes, false if they are malformed
+  boolean set(ByteBuffer buffer, int off, int len){
+    this.buffer = buffer;
+    this.off = off;
+    this.len = len;
+    return walk(null);
+  }
+
+  // releases the input, so the probe does not keep it reachable
+  void clear(){
+    chars = null;
+    bytes = null;
+    buffer = null;
+  }
+
+  private int byteAt(int i){
+    return bytes != null ? bytes[i] : buffer.get(i);
+  }
+
+  // decodes the UTF-8 input to UTF-16 chars, computing hash and length
+  // if s is null, comparing to s otherwise
+  // false if the input is malformed or differs from s
+  private boolean walk(String s){
+
+    int h = 0;
+    int n = 0;
+    int i = off;
+    final int end = off + len;
+
+    while (i < end){
+
+      int b = byteAt(i++);
+      int cp;
+
+      if (b >= 0){
+        cp = b;
+      }
+      else if ((b & 0xE0) == 0xC0){
+        if (end - i < 1) return false;
+        int b1 = byteAt(i++);
+        if ((b1 & 0xC0) != 0x80) return false;
+        cp = ((b & 0x1F) << 6) | (b1 & 0x3F);
+        if (cp < 0x80) return false;
+      }
+      else if ((b & 0xF0) == 0xE0){
+        if (end - i < 2) return false;
+        int b1 = byteAt(i++);
+        int b2 = byteAt(i++);
+        if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80) return false;
+        cp = ((b & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+        if (cp < 0x800 || Character.isSurrogate((char) cp)) return false;
+      }
+      else if ((b & 0xF8) == 0xF0){
+        if (end - i < 3) return false;
+        int b1 = byteAt(i++);
+        int b2 = byteAt(i++);
+        int b3 = byteAt(i++);
+        if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80) return false;
+        cp = ((b & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+        if (cp < 0x10000 || cp > Character.MAX_CODE_POINT) return false;
+      }
+      else {
+        return false;
+      }
+
+      if (cp < 0x10000){
+        if (s != null && (n >= s.length() || s.charAt(n) != cp)) return false;
+        h = 31 * h + cp;
+        n += 1;
+      }
+      else {
+        char hi = Character.highSurrogate(cp);
+        char lo = Character.lowSurrogate(cp);
+        if (s != null && (n + 1 >= s.length() || s.charAt(n) != hi || s.charAt(n + 1) != lo)) return false;
+        h = 31 * (31 * h + hi) + lo;
+        n += 2;
+      }
+
+    }
+
+    if (s != null) return n == s.length();
+
+    hash = h;
+    length = n;
+    return true;
+
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  // equal to the String of the same chars, the intern table
+  // compares probes to its keys, never the other way round
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof String)) return false;
+    String s = (String) obj;
+    if (s.length() != length) return false;
+    if (chars != null) return s.contentEquals(chars);
+    return walk(s);
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.Arrays;
+
+/**
+ * Primitive storage of a ConstShapeMap of a typed shape.
+ *
+ * Plain maps do not have one, so they keep their layout. LONG and DOUBLE
+ * values are stored at the same index as they would be in the map's
+ * object storage.
+ */
+final class PrimitiveSlots {
+
+  static final byte OBJECT = (byte) SlotType.OBJECT.ordinal();
+  static final byte LONG = (byte) SlotType.LONG.ordinal();
+  static final byte DOUBLE = (byte) SlotType.DOUBLE.ordinal();
+
+  // the SlotType ordinal of each index, shared with the shape
+  final byte[] types;
+
+  // null unless the shape has slots of that type
+  final long[] longs;
+  final double[] doubles;
+
+  PrimitiveSlots(byte[] types, long[] longs, double[] doubles) {
+    this.types = types;
+    this.longs = longs;
+    this.doubles = doubles;
+  }
+
+  PrimitiveSlots copy(){
+    return new PrimitiveSlots(types,
+      longs == null ? null : longs.clone(),
+      doubles == null ? null : doubles.clone());
+  }
+
+  // the boxed value of the primitive slot at idx
+  Object box(int idx){
+    return types[idx] == LONG ? (Object) longs[idx] : (Object) doubles[idx];
+  }
+
+  // stores v in the primitive slot at idx, null stores 0
+  void unbox(int idx, Object v){
+    if (types[idx] == LONG){
+      longs[idx] = v == null ? 0L : ((Number) v).longValue();
+    }
+    else {
+      doubles[idx] = v == null ? 0.0 : ((Number) v).doubleValue();
+    }
+  }
+
+  void clear(){
+    if (longs != null) Arrays.fill(longs, 0L);
+    if (doubles != null) Arrays.fill(doubles, 0.0);
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+/**
+ * Reads and writes the keys of an AccessorGroup in the map it is bound to.
+ *
+ * Binding a view to a map resolves the storage indexes of all keys of the
+ * group. Accessing a key then is a reference comparison of the map's shape
+ * and an array access. When the map changes its shape, the view resolves the
+ * indexes again on its next access.
+ *
+ * Views are meant to be reused for many maps in turn. They are not safe to
+ * share between threads.
+ */
+public final class RecordView<T> {
+
+  private final AccessorGroup<T> group;
+
+  private ShapeMap<T> map;
+  private Shape shape;
+  // storage indexes of the group's keys in shape, null for dictionary shapes
+  private int[] idxs;
+
+  RecordView(AccessorGroup<T> group) {
+    this.group = group;
+  }
+
+  public AccessorGroup<T> group(){
+    return group;
+  }
+
+  // makes this view access given map
+  public RecordView<T> bind(ShapeMap<T> m){
+    map = m;
+    resolve(m.shape);
+    return this;
+  }
+
+  // the map this view is bound to, null if there is none
+  public ShapeMap<T> map(){
+    return map;
+  }
+
+  private void resolve(Shape s){
+    shape = s;
+    // dictionary shapes change in place, their indexes are resolved on each access
+    idxs = s.isDictionary() ? null : group.planFor(s);
+  }
+
+  // storage index of the key at position i of the group in the map, 0 if it is not in its shape
+  private int idxFor(int i){
+    Shape s = map.shape;
+    if (s != shape) resolve(s);
+    int[] p = idxs;
+    return p != null ? p[i] : s.idxFor(group.key(i));
+  }
+
+  // whether the key at position i of the group is in the map
+  public boolean has(int i){
+    int idx = idxFor(i);
+    return idx > 0 && map.isPresent(idx);
+  }
+
+  // the value of the key at position i of the group, null if the key is not in the map
+  @SuppressWarnings("unchecked")
+  public T get(int i){
+    // storage of absent keys, and index 0, are always null
+    return (T) map.storage[idxFor(i)];
+  }
+
+  // sets the value of the key at position i of the group
+  public void set(int i, T v){
+    int idx = idxFor(i);
+    if (idx == 0){
+      map.set(group.key(i), v);
+      return;
+    }
+    ShapeMap<T> m = map;
+    m.storage[idx] = v;
+    if (!m.isPresent(idx)) m.addPresent(idx);
+  }
+
+  // removes the key at position i of the group, returns its previous value
+  public T remove(int i){
+    return map.remove(group.key(i));
+  }
+
+}
@@ -36,10 +36,19 @@ public interface Shape {
   // returns the index of key k in this shape
   int idxFor(ShapeKey k);
 
+  // returns the key at index idx in this shape, null if there is none
+  ShapeKey keyAt(int idx);
+
+  // create another shape by adding given key
+  // returns this shape if it already contains the key
+  Shape extendBy(ShapeKey key);
+
   // create another shape by adding given keys
+  // returns this shape if it already contains all keys
   Shape extendBy(Set<ShapeKey> byKeys);
 
   // create another shape by removing given keys
+  // returns this shape if it contains none of the keys
   Shape shrinkBy(Set<ShapeKey> byKeys);
 
   // returns which keys are in the shape
@@ -48,5 +57,12 @@ public interface Shape {
   // the amount of keys the shape holds
   int size();
 
+  // the number of transitions leading from an interned shape to this shape
+  int depth();
+
+  // whether this is a mutable shape owned by a single map
+  // such shapes are extended in place and must not be cached by accessors
+  boolean isDictionary();
+
   void initConst(ConstShapeMap shapeMap);
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.*;
+
+/**
+ * A shape of up to MAX_KEYS keys.
+ *
+ * Keys are only kept in the slot array, and resolved to indexes
+ * by comparing references, which beats hashing for few keys.
+ */
+class Shape8 extends AbstractShape {
+
+  static final int MAX_KEYS = 8;
+
+  private final int size;
+  private final Set<ShapeKey> keySet = new KeySet();
+
+  Shape8(Shape parent, ShapeKey[] slots){
+    super(parent, slots);
+    int n = 0;
+    for (ShapeKey k : slots) {
+      if (k != null) n++;
+    }
+    size = n;
+  }
+
+  public Shape8(Set<ShapeKey> keys) {
+    this(null, slotsFor(keys));
+  }
+
+  @Override
+  public int idxFor(ShapeKey k) {
+    // removed keys leave null slots behind
+    if (k == null) return 0;
+    final ShapeKey[] slots = this.slots;
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] == k) return i;
+    }
+    return 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  HashSet<ShapeKey> copyKeys() {
+    HashSet<ShapeKey> keys = new HashSet<>();
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] != null) keys.add(slots[i]);
+    }
+    return keys;
+  }
+
+  @Override
+  public Set<ShapeKey> keySet() {
+    return keySet;
+  }
+
+  // read-only view of the keys in slots
+  private class KeySet extends AbstractSet<ShapeKey> {
+
+    @Override
+    public Iterator<ShapeKey> iterator() {
+      return new Iterator<ShapeKey>() {
+
+        private int i = advance(1);
+
+        private int advance(int from){
+          while (from < slots.length && slots[from] == null){
+            from += 1;
+          }
+          return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return i < slots.length;
+        }
+
+        @Override
+        public ShapeKey next() {
+          if (i >= slots.length) throw new NoSuchElementException();
+          ShapeKey k = slots[i];
+          i = advance(i+1);
+          return k;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return o instanceof ShapeKey && idxFor((ShapeKey) o) > 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.twineworks.collections.shapemap;
+
+/**
+ * A bounded identity map from shapes to the index of a single key in them.
+ * Backs accessors whose inline cache slots are exhausted.
+ *
+ * Lookups probe a few slots only. Once the table has reached its maximum
+ * capacity, new shapes evict whatever occupies their home slot.
+ *
+ * Lookups and updates may race. Entries are immutable, and grown tables are
+ * published through a volatile field, so a racing lookup can miss a shape
+ * but never returns a wrong index. Racing updates can lose entries, which
+ * only costs a later miss.
+ */
+final class ShapeIndexCache {
+
+  static final int INITIAL_CAPACITY = 16;
+  static final int MAX_CAPACITY = 1024;
+
+  // how many slots are probed before giving up
+  private static final int MAX_PROBE = 8;
+
+  private final int maxCapacity;
+  private volatile ShapeIndex[] table = new ShapeIndex[INITIAL_CAPACITY];
+  private int size = 0;
+
+  ShapeIndexCache(){
+    this(MAX_CAPACITY);
+  }
+
+  ShapeIndexCache(int maxCapacity){
+    if (maxCapacity < INITIAL_CAPACITY || Integer.bitCount(maxCapacity) != 1){
+      throw new IllegalArgumentException("max capacity must be a power of two of at least "+INITIAL_CAPACITY);
+    }
+    this.maxCapacity = maxCapacity;
+  }
+
+  // returns the index cached for shape s, -1 if s is not cached
+  int get(Shape s){
+
+    final ShapeIndex[] t = table;
+    final int mask = t.length - 1;
+    final int h = s.hashCode();
+
+    for (int p = 0; p < MAX_PROBE; p++) {
+      ShapeIndex e = t[(h + p) & mask];
+      if (e == null) return -1;
+      if (e.shape == s) return e.idx;
+    }
+    return -1;
+
+  }
+
+  void put(Shape s, int idx){
+
+    ShapeIndex[] t = table;
+    if (size >= (t.length >>> 1) && t.length < maxCapacity){
+      t = grow(t);
+    }
+
+    if (insert(t, new ShapeIndex(s, idx))){
+      size++;
+    }
+
+  }
+
+  int size(){
+    return size;
+  }
+
+  // places e into t, evicting the entry in its home slot if there is no room
+  // returns true if the table holds one more entry than before
+  private static boolean insert(ShapeIndex[] t, ShapeIndex e){
+
+    final int mask = t.length - 1;
+    final int h = e.shape.hashCode();
+
+    for (int p = 0; p < MAX_PROBE; p++) {
+      int i = (h + p) & mask;
+      ShapeIndex o = t[i];
+      if (o == null){
+        t[i] = e;
+        return true;
+      }
+      if (o.shape == e.shape){
+        t[i] = e;
+        return false;
+      }
+    }
+
+    t[h & mask] = e;
+    return false;
+
+  }
+
+  private ShapeIndex[] grow(ShapeIndex[] t){
+
+    ShapeIndex[] n = new ShapeIndex[t.length * 2];
+    int s = 0;
+    for (ShapeIndex e : t) {
+      if (e != null && insert(n, e)) s++;
+    }
+    size = s;
+    table = n;
+    return n;
+
+  }
+
+}
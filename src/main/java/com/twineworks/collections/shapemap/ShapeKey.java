@@ -26,7 +26,9 @@ package com.twineworks.collections.shapemap;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -38,9 +40,22 @@ public class ShapeKey {
   private static final ConcurrentHashMap<String, Reference<ShapeKey>> table = new ConcurrentHashMap<>();
   private static final ReferenceQueue<ShapeKey> rq = new ReferenceQueue<>();
 
+  // looks up keys without creating a String first
+  private static final ThreadLocal<KeyProbe> probes = ThreadLocal.withInitial(KeyProbe::new);
+
+  // ids of collected keys, handed out again before new ids
+  private static final Object idLock = new Object();
+  private static int[] freeIds = new int[64];
+  private static int freeCount = 0;
+  private static int nextId = 0;
+
   // cached hashcode of the key
   public final int hashCode;
 
+  // dense id of the key, unique among live keys
+  // the ids of collected keys are reused
+  public final int id;
+
   // string the key is for
   public final String sym;
 
@@ -51,12 +66,15 @@ public class ShapeKey {
     if(existingRef == null) {
       purgeCache();
 
-      ShapeKey k = new ShapeKey(sym);
-      existingRef = table.putIfAbsent(sym, new WeakReference<>(k, rq));
+      ShapeKey k = new ShapeKey(sym, acquireId());
+      existingRef = table.putIfAbsent(sym, new KeyRef(sym, k));
 
       if(existingRef == null)
         return k;
 
+      // another thread interned the key first, k never escapes
+      releaseId(k.id);
+
     }
 
     ShapeKey existingKey = existingRef.get();
@@ -69,14 +87,134 @@ public class ShapeKey {
     return intern(sym);
   }
 
+  // a weak reference to an interned key, returns the key's id once collected
+  private static final class KeyRef extends WeakRefCacheUtil.KeyedWeakReference<String, ShapeKey> {
+
+    private final int id;
+
+    private KeyRef(String sym, ShapeKey k) {
+      super(sym, k, rq);
+      this.id = k.id;
+    }
+
+    @Override
+    void collected() {
+      releaseId(id);
+    }
+  }
+
+  private static int acquireId(){
+    synchronized (idLock){
+      if (freeCount > 0) return freeIds[--freeCount];
+      return nextId++;
+    }
+  }
+
+  private static void releaseId(int id){
+    synchronized (idLock){
+      if (freeCount == freeIds.length){
+        freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+      }
+      freeIds[freeCount++] = id;
+    }
+  }
+
+  // one more than the largest id handed out so far
+  // arrays of this length can be indexed by the id of any key
+  public static int idLimit(){
+    synchronized (idLock){
+      return nextId;
+    }
+  }
+
   public static void purgeCache(){
     WeakRefCacheUtil.clear(rq, table);
   }
 
+  // the number of currently interned keys, collected keys are
+  // counted until they are purged
+  public static int internedCount(){
+    return table.size();
+  }
+
   public static ShapeKey get(String symbol){
     return intern(symbol);
   }
 
+  // the interned key for given chars, a String is only created
+  // if the key is not interned yet
+  public static ShapeKey get(CharSequence symbol){
+
+    if (symbol instanceof String) return intern((String) symbol);
+
+    KeyProbe probe = probes.get();
+    probe.set(symbol);
+    ShapeKey k = lookup(probe);
+    if (k != null) return k;
+
+    return intern(symbol.toString());
+  }
+
+  // the interned key for given UTF-8 encoded bytes, a String is only
+  // created if the key is not interned yet, or the bytes are malformed
+  public static ShapeKey get(byte[] utf8, int off, int len){
+
+    if (off < 0 || len < 0 || off > utf8.length - len){
+      throw new IndexOutOfBoundsException("off: "+off+", len: "+len+", length: "+utf8.length);
+    }
+
+    KeyProbe probe = probes.get();
+    if (probe.set(utf8, off, len)){
+      ShapeKey k = lookup(probe);
+      if (k != null) return k;
+    }
+    else {
+      probe.clear();
+    }
+
+    return intern(new String(utf8, off, len, StandardCharsets.UTF_8));
+  }
+
+  // the interned key for given UTF-8 encoded bytes at absolute positions
+  // of the buffer, the buffer's position and limit are not changed
+  public static ShapeKey get(ByteBuffer utf8, int off, int len){
+
+    if (off < 0 || len < 0 || off > utf8.limit() - len){
+      throw new IndexOutOfBoundsException("off: "+off+", len: "+len+", limit: "+utf8.limit());
+    }
+
+    if (utf8.hasArray()){
+      return get(utf8.array(), utf8.arrayOffset() + off, len);
+    }
+
+    KeyProbe probe = probes.get();
+    if (probe.set(utf8, off, len)){
+      ShapeKey k = lookup(probe);
+      if (k != null) return k;
+    }
+    else {
+      probe.clear();
+    }
+
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = utf8.get(off + i);
+    }
+    return intern(new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  // the interned key matching the probe, null if there is none
+  private static ShapeKey lookup(KeyProbe probe){
+    Reference<ShapeKey> ref;
+    try {
+      ref = table.get(probe);
+    }
+    finally {
+      probe.clear();
+    }
+    return ref == null ? null : ref.get();
+  }
+
   public static Set<ShapeKey> getAll(String ... symbols){
     HashSet<ShapeKey> keys = new HashSet<>(symbols.length);
     for (String sym : symbols) {
@@ -103,9 +241,10 @@ public class ShapeKey {
     return keys;
   }
 
-  private ShapeKey(String symbol){
+  private ShapeKey(String symbol, int id){
     this.sym = symbol;
     this.hashCode = symbol.hashCode();
+    this.id = id;
   }
 
   @Override
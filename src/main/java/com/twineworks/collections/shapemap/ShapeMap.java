@@ -25,45 +25,58 @@
 
 package com.twineworks.collections.shapemap;
 
+import com.twineworks.collections.batch.Batch;
+
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
   public Shape shape;
   public Object[] storage = null;
-  public ShapeKey[] presence = null;
-  public final LinkedHashSet<ShapeKey> keys;
+
+  // presence of mappings at storage indexes 0-63, bit i is set if there is a mapping at index i
+  // presence is an implementation detail, use containsKey or keySet to query it
+  long presence = 0L;
+  // presence of mappings at storage indexes from 64 up, bit i of word w is for index (w+1)*64+i
+  // null unless storage has such indexes
+  long[] presenceExt = null;
+
+  // number of mappings
+  int size = 0;
 
   public ShapeMap(){
-    keys = new LinkedHashSet<>();
     shape = Shapes.forKeySet(Collections.<ShapeKey>emptySet());
     shape.init(this);
 
   }
 
-  @SuppressWarnings("unchecked")
   public ShapeMap(ShapeMap input){
-    shape = input.shape;
+    // dictionary shapes belong to a single map
+    shape = input.shape instanceof DictionaryShape ? ((DictionaryShape) input.shape).copy() : input.shape;
     storage = Arrays.copyOf(input.storage, input.storage.length);
-    presence = Arrays.copyOf(input.presence, input.presence.length);
-    keys = (LinkedHashSet<ShapeKey>) input.keys.clone();
+    presence = input.presence;
+    presenceExt = input.presenceExt == null ? null : input.presenceExt.clone();
+    size = input.size;
   }
 
   public ShapeMap(Collection<ShapeKey> keys){
     shape = Shapes.forKeys(keys);
-    this.keys = new LinkedHashSet<>();
-    this.keys.addAll(keys);
     shape.init(this);
     for (ShapeKey key : keys) {
-      presence[shape.idxFor(key)] = key;
+      int idx = shape.idxFor(key);
+      if (!isPresent(idx)) addPresent(idx);
     }
   }
 
   public ShapeMap(Map<String, ? extends T> map){
-    this.keys = new LinkedHashSet<>();
+    LinkedHashSet<ShapeKey> keys = new LinkedHashSet<>();
     Set<String> strKeys = map.keySet();
     for (String strKey : strKeys) {
-      this.keys.add(ShapeKey.get(strKey));
+      keys.add(ShapeKey.get(strKey));
     }
 
     shape = Shapes.forKeySet(keys);
@@ -72,19 +85,19 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
     for (ShapeKey key : keys) {
       int idx = shape.idxFor(key);
       storage[idx] = map.get(key.toString());
-      presence[idx] = key;
+      addPresent(idx);
     }
 
   }
 
   public ShapeMap(ShapeKey... keys){
-    this.keys = new LinkedHashSet<>();
-    Collections.addAll(this.keys, keys);
+    LinkedHashSet<ShapeKey> keySet = new LinkedHashSet<>();
+    Collections.addAll(keySet, keys);
 
-    shape = Shapes.forKeySet(this.keys);
+    shape = Shapes.forKeySet(keySet);
     shape.init(this);
-    for (ShapeKey key : keys) {
-      presence[shape.idxFor(key)] = key;
+    for (ShapeKey key : keySet) {
+      addPresent(shape.idxFor(key));
     }
 
   }
@@ -123,18 +136,48 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
     }
 
-    this.keys = new LinkedHashSet<>(keys);
-
-    shape = Shapes.forKeySet(this.keys);
+    shape = Shapes.forKeySet(new LinkedHashSet<>(keys));
     shape.init(this);
 
     for (int i = 0; i < keys.size(); i++) {
       ShapeKey key = keys.get(i);
       int idx = shape.idxFor(key);
       storage[idx] = values.get(i);
-      presence[idx] = key;
+      if (!isPresent(idx)) addPresent(idx);
+    }
+
+  }
+
+  // a template for constructing maps of given keys without resolving their shape again
+  public static ShapeTemplate template(Collection<ShapeKey> keys){
+    return new ShapeTemplate(keys);
+  }
+
+  public static ShapeTemplate template(ShapeKey... keys){
+    return new ShapeTemplate(Arrays.asList(keys));
+  }
+
+  // convenience method
+  public static ShapeTemplate template(String... keys){
+    ArrayList<ShapeKey> shapeKeys = new ArrayList<>(keys.length);
+    for (String key : keys) {
+      shapeKeys.add(ShapeKey.get(key));
     }
+    return new ShapeTemplate(shapeKeys);
+  }
 
+  // a group accessing given keys with a single shape check per map
+  public static <V> AccessorGroup<V> accessorGroup(ShapeKey... keys){
+    return new AccessorGroup<>(Arrays.asList(keys));
+  }
+
+  // convenience method
+  public static <V> AccessorGroup<V> accessorGroup(String... keys){
+    ArrayList<ShapeKey> shapeKeys = new ArrayList<>(keys.length);
+    for (String key : keys) {
+      shapeKeys.add(ShapeKey.get(key));
+    }
+    return new AccessorGroup<>(shapeKeys);
   }
 
   public static <V> ShapeMap.Accessor<V> accessor(ShapeKey k){
@@ -148,19 +191,91 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
     return new PolymorphicAccessor<>(ShapeKey.get(k));
   }
 
+  final boolean isPresent(int idx){
+    if (idx < 64) return (presence & (1L << idx)) != 0;
+    return (presenceExt[(idx >>> 6) - 1] & (1L << idx)) != 0;
+  }
+
+  final void markPresent(int idx){
+    if (idx < 64){
+      presence |= 1L << idx;
+    }
+    else{
+      presenceExt[(idx >>> 6) - 1] |= 1L << idx;
+    }
+  }
+
+  final void markAbsent(int idx){
+    if (idx < 64){
+      presence &= ~(1L << idx);
+    }
+    else{
+      presenceExt[(idx >>> 6) - 1] &= ~(1L << idx);
+    }
+  }
+
+  // index of the first mapping at or after index from, -1 if there is none
+  final int nextPresent(int from){
+
+    if (from < 64){
+      long w = presence & (-1L << from);
+      if (w != 0) return Long.numberOfTrailingZeros(w);
+      from = 64;
+    }
+
+    long[] ext = presenceExt;
+    if (ext == null) return -1;
+
+    int wi = (from >>> 6) - 1;
+    if (wi >= ext.length) return -1;
+
+    long w = ext[wi] & (-1L << from);
+    while (w == 0){
+      if (++wi == ext.length) return -1;
+      w = ext[wi];
+    }
+    return ((wi + 1) << 6) + Long.numberOfTrailingZeros(w);
+
+  }
+
+  // records a new mapping stored at index idx
+  final void addPresent(int idx){
+    markPresent(idx);
+    size++;
+  }
+
+  // removes the mapping stored at index idx
+  final void removeAt(int idx){
+    storage[idx] = null;
+    markAbsent(idx);
+    size--;
+  }
+
+  // ensures there are presence bits for every storage index
+  final void ensurePresenceCapacity(){
+    int words = (storage.length - 1) >>> 6;
+    if (words == 0) return;
+    if (presenceExt == null){
+      presenceExt = new long[words];
+    }
+    else if (presenceExt.length < words){
+      presenceExt = Arrays.copyOf(presenceExt, words);
+    }
+  }
+
   @Override
   public int size() {
-    return keys.size();
+    return size;
   }
 
   @Override
   public boolean isEmpty() {
-    return keys.size() == 0;
+    return size == 0;
   }
 
   @Override
   public boolean containsKey(Object key) {
-    return key instanceof ShapeKey && keys.contains(key);
+    return key instanceof ShapeKey && isPresent(shape.idxFor((ShapeKey) key));
   }
 
   // convenience method when performance is not important
@@ -172,10 +287,8 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
   @Override
   public boolean containsValue(Object value) {
 
-    for (ShapeKey key : keys) {
-      int idx = shape.idxFor(key);
-      Object v = storage[idx];
-      if (Objects.equals(value, v)) return true;
+    for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+      if (Objects.equals(value, storage[idx])) return true;
     }
 
     return false;
@@ -186,7 +299,7 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
   @SuppressWarnings("unchecked")
   public T get(Object key) {
     int idx = shape.idxFor((ShapeKey)key);
-    return (T) presence[idx] != null ? (T) storage[idx] : null;
+    return isPresent(idx) ? (T) storage[idx] : null;
   }
 
   // convenience method if performance is not an issue
@@ -222,21 +335,18 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
     int idx = shape.idxFor(key);
     if (idx > 0){
-      if (presence[idx] == null){
-        keys.add(key);
-        presence[idx] = key;
+      if (!isPresent(idx)){
+        addPresent(idx);
       }
       T prev = (T) storage[idx];
       storage[idx] = value;
       return prev;
     }
     else{
-      shape = Shapes.extendBy(shape, key);
-      shape.ensureCapacity(this);
-      keys.add(key);
+      extendShapeBy(key);
       idx = shape.idxFor(key);
       storage[idx] = value;
-      presence[idx] = key;
+      addPresent(idx);
       return null;
     }
 
@@ -248,17 +358,123 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
     return put(ShapeKey.get(key), value);
   }
 
+  // index of key, extends the shape by key if necessary
+  private int assocIdxFor(ShapeKey key){
+    int idx = shape.idxFor(key);
+    if (idx > 0) return idx;
+    extendShapeBy(key);
+    return shape.idxFor(key);
+  }
+
+  // stores value at index idx, recording a new mapping if there is none
+  private void storeAt(int idx, T value){
+    storage[idx] = value;
+    if (!isPresent(idx)) addPresent(idx);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T getOrDefault(Object key, T defaultValue) {
+    int idx = shape.idxFor((ShapeKey) key);
+    return isPresent(idx) ? (T) storage[idx] : defaultValue;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T putIfAbsent(ShapeKey key, T value) {
+    Objects.requireNonNull(key);
+    int idx = shape.idxFor(key);
+    T prev = (T) storage[idx];
+    if (prev == null){
+      storeAt(idx > 0 ? idx : assocIdxFor(key), value);
+    }
+    return prev;
+  }
+
+  // the remapping functions below must not change this map
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T computeIfAbsent(ShapeKey key, Function<? super ShapeKey, ? extends T> mappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(mappingFunction);
+    int idx = shape.idxFor(key);
+    T prev = (T) storage[idx];
+    if (prev != null) return prev;
+
+    T value = mappingFunction.apply(key);
+    if (value != null){
+      storeAt(idx > 0 ? idx : assocIdxFor(key), value);
+    }
+    return value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T computeIfPresent(ShapeKey key, BiFunction<? super ShapeKey, ? super T, ? extends T> remappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(remappingFunction);
+    int idx = shape.idxFor(key);
+    T prev = (T) storage[idx];
+    if (prev == null) return null;
+
+    T value = remappingFunction.apply(key, prev);
+    if (value == null){
+      remove(key);
+    }
+    else {
+      storage[idx] = value;
+    }
+    return value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T compute(ShapeKey key, BiFunction<? super ShapeKey, ? super T, ? extends T> remappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(remappingFunction);
+    int idx = shape.idxFor(key);
+    T prev = (T) storage[idx];
+
+    T value = remappingFunction.apply(key, prev);
+    if (value == null){
+      if (isPresent(idx)) remove(key);
+    }
+    else {
+      storeAt(idx > 0 ? idx : assocIdxFor(key), value);
+    }
+    return value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T merge(ShapeKey key, T value, BiFunction<? super T, ? super T, ? extends T> remappingFunction) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(remappingFunction);
+    int idx = shape.idxFor(key);
+    T prev = (T) storage[idx];
+
+    T merged = prev == null ? value : remappingFunction.apply(prev, value);
+    if (merged == null){
+      remove(key);
+    }
+    else {
+      storeAt(idx > 0 ? idx : assocIdxFor(key), merged);
+    }
+    return merged;
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public T remove(Object key) {
 
     ShapeKey k = (ShapeKey) key;
-    if (keys.remove(k)){
-      int idx = shape.idxFor(k);
+    int idx = shape.idxFor(k);
+    if (isPresent(idx)){
       T v = (T) storage[idx];
-      storage[idx] = null;
-//      shape = Shapes.shrinkBy(shape, k);
-      presence[idx] = null;
+      removeAt(idx);
+      if (Shapes.shouldCompact(shape, size)) compact();
       return v;
     }
 
@@ -273,19 +489,16 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
     int idx = shape.idxFor(key);
     if (idx > 0){
-      if (presence[idx] == null){
-        keys.add(key);
-        presence[idx] = key;
+      if (!isPresent(idx)){
+        addPresent(idx);
       }
       storage[idx] = value;
     }
     else{
-      shape = Shapes.extendBy(shape, key);
-      shape.ensureCapacity(this);
-      keys.add(key);
+      extendShapeBy(key);
       idx = shape.idxFor(key);
       storage[idx] = value;
-      presence[idx] = key;
+      addPresent(idx);
     }
 
   }
@@ -301,42 +514,199 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
     return remove(ShapeKey.get(key));
   }
 
-  private void clearKeyData(ShapeKey k){
-    int idx = shape.idxFor(k);
-    storage[idx] = null;
-    presence[idx] = null;
-//    shape = Shapes.shrinkBy(shape, k);
-  }
-
   @Override
+  @SuppressWarnings("unchecked")
   public void putAll(Map<? extends ShapeKey, ? extends T> m) {
+    if (m instanceof ShapeMap){
+      putAll((ShapeMap<? extends T>) m);
+    }
+    else {
+      putAllKeys(m);
+    }
+  }
+
+  // copies all mappings of m to this map
+  // if all keys of one map's shape are at the same indexes in the other map's shape,
+  // values are copied index by index, without looking up keys
+  public void putAll(ShapeMap<? extends T> m) {
+
+    if (m == this) return;
+
+    Shape from = m.shape;
+    if (from != shape){
+
+      if (!(from instanceof AbstractShape) || !(shape instanceof AbstractShape)){
+        putAllKeys(m);
+        return;
+      }
+
+      if (((AbstractShape) shape).isPrefixOf((AbstractShape) from)){
+        // m's shape extends this map's shape, take it over
+        shape = from;
+        shape.ensureCapacity(this);
+      }
+      else if (!((AbstractShape) from).isPrefixOf((AbstractShape) shape)){
+        putAllKeys(m);
+        return;
+      }
+
+    }
+
+    Object[] src = m.storage;
+    presence = copyPresent(src, 0, m.presence, presence);
+
+    long[] ext = m.presenceExt;
+    if (ext != null){
+      for (int i = 0; i < ext.length; i++) {
+        if (ext[i] != 0L){
+          presenceExt[i] = copyPresent(src, (i + 1) << 6, ext[i], presenceExt[i]);
+        }
+      }
+    }
+
+  }
+
+  // copies values at index base plus the set bits of word from src to storage, a run of
+  // consecutive bits at a time, and returns the presence word covering the copied values
+  private long copyPresent(Object[] src, int base, long word, long present){
+
+    size += Long.bitCount(word & ~present);
+
+    long w = word;
+    while (w != 0L){
+      int start = Long.numberOfTrailingZeros(w);
+      int run = Long.numberOfTrailingZeros(~(w >>> start));
+      System.arraycopy(src, base + start, storage, base + start, run);
+      int end = start + run;
+      w = end == 64 ? 0L : w & (-1L << end);
+    }
+
+    return present | word;
+  }
+
+  // replaces all mappings of this map with the mappings of m, this map takes over m's shape
+  // storage of this map is reused if it is large enough
+  public void copyFrom(ShapeMap<? extends T> m) {
+
+    if (m == this) return;
+
+    // dictionary shapes belong to a single map
+    shape = m.shape instanceof DictionaryShape ? ((DictionaryShape) m.shape).copy() : m.shape;
+
+    Object[] src = m.storage;
+    long[] srcExt = m.presenceExt;
+
+    if (storage.length >= src.length){
+      System.arraycopy(src, 0, storage, 0, src.length);
+      Arrays.fill(storage, src.length, storage.length, null);
+      if (presenceExt != null){
+        int words = srcExt == null ? 0 : srcExt.length;
+        if (words > 0) System.arraycopy(srcExt, 0, presenceExt, 0, words);
+        Arrays.fill(presenceExt, words, presenceExt.length, 0L);
+      }
+    }
+    else {
+      storage = src.clone();
+      presenceExt = srcExt == null ? null : srcExt.clone();
+    }
+
+    presence = m.presence;
+    size = m.size;
+
+  }
+
+  // copies mappings one key at a time
+  private void putAllKeys(Map<? extends ShapeKey, ? extends T> m) {
 
     LinkedHashSet<ShapeKey> newKeys = new LinkedHashSet<>(m.keySet());
-    keys.addAll(newKeys);
-    shape = shape.extendBy(newKeys);
-    shape.ensureCapacity(this);
+    extendShapeBy(newKeys);
 
     for (ShapeKey key : newKeys) {
       Objects.requireNonNull(key);
       int idx = shape.idxFor(key);
       storage[idx] = m.get(key);
-      presence[idx] = key;
+      if (!isPresent(idx)) addPresent(idx);
     }
 
   }
 
   public void addKeys(Collection<ShapeKey> newKeys) {
 
-    keys.addAll(newKeys);
-    shape = shape.extendBy(keys);
-    shape.ensureCapacity(this);
+    extendShapeBy(new HashSet<>(newKeys));
     for (ShapeKey key : newKeys) {
-      presence[shape.idxFor(key)] = key;
+      int idx = shape.idxFor(key);
+      if (!isPresent(idx)) addPresent(idx);
     }
   }
 
   public void extendShape(Set<ShapeKey> newKeys){
-    shape = shape.extendBy(newKeys);
+    extendShapeBy(newKeys);
+  }
+
+  // moves this map to a shape of the keys it holds, and repacks storage
+  // maps holding the same set of keys compact to the same shared shape, whose
+  // slot order is that of the first map compacted to it
+  public void compact(){
+
+    Shape s = shape;
+    if (s instanceof AbstractShape && ((AbstractShape) s).slots.length - 1 == size) return;
+
+    // mappings in slot order
+    ShapeKey[] keys = new ShapeKey[size];
+    Object[] values = new Object[size];
+    int n = 0;
+    for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+      keys[n] = s.keyAt(idx);
+      values[n] = storage[idx];
+      n++;
+    }
+
+    LinkedHashSet<ShapeKey> keySet = new LinkedHashSet<>(Arrays.asList(keys));
+    Shape empty = Shapes.forKeySet(Collections.<ShapeKey>emptySet());
+    if (Shapes.exceedsDictionaryLimits(empty, keySet.size())){
+      shape = new DictionaryShape((AbstractShape) empty).extendBy(keySet);
+    }
+    else {
+      shape = empty.extendBy(keySet);
+    }
+
+    shape.init(this);
+    for (int i = 0; i < n; i++) {
+      int idx = shape.idxFor(keys[i]);
+      storage[idx] = values[i];
+      markPresent(idx);
+    }
+
+  }
+
+  // whether this map has switched to a shape of its own
+  public boolean isDictionary(){
+    return shape.isDictionary();
+  }
+
+  // transitions to a shape including key
+  final void extendShapeBy(ShapeKey key){
+    Shape s = shape;
+    if (!s.isDictionary() && Shapes.exceedsDictionaryLimits(s, 1)){
+      s = new DictionaryShape((AbstractShape) s);
+    }
+    shape = s.extendBy(key);
+    shape.ensureCapacity(this);
+  }
+
+  // transitions to a shape including keys
+  final void extendShapeBy(Set<ShapeKey> keys){
+    Shape s = shape;
+    if (!s.isDictionary()){
+      int added = 0;
+      for (ShapeKey key : keys) {
+        if (s.idxFor(key) == 0) added++;
+      }
+      if (added > 0 && Shapes.exceedsDictionaryLimits(s, added)){
+        s = new DictionaryShape((AbstractShape) s);
+      }
+    }
+    shape = s.extendBy(keys);
     shape.ensureCapacity(this);
   }
 
@@ -344,49 +714,51 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
   public void clear() {
     // just clears the keys and values, does not change the shape
     Arrays.fill(storage, null);
-    Arrays.fill(presence, null);
-    keys.clear();
+    presence = 0L;
+    if (presenceExt != null) Arrays.fill(presenceExt, 0L);
+    size = 0;
     //shape = Shapes.forKeySet(Collections.<ShapeKey>emptySet());
 
   }
 
+  // visits mappings in slot order, reading keys from the shape and values from storage
+  @Override
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super ShapeKey, ? super T> action) {
+    Objects.requireNonNull(action);
+    for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+      action.accept(shape.keyAt(idx), (T) storage[idx]);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void replaceAll(BiFunction<? super ShapeKey, ? super T, ? extends T> function) {
+    Objects.requireNonNull(function);
+    for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+      storage[idx] = function.apply(shape.keyAt(idx), (T) storage[idx]);
+    }
+  }
+
   @Override
   public Set<ShapeKey> keySet() {
     return new AbstractSet<ShapeKey>() {
 
       @Override
       public Iterator<ShapeKey> iterator() {
-        return new Iterator<ShapeKey>() {
-
-          private Iterator<ShapeKey> keyIterator = ShapeMap.this.keys.iterator();
-          private ShapeKey k = null;
-
-          @Override
-          public boolean hasNext() {
-            return keyIterator.hasNext();
-          }
+        return new IdxIterator<ShapeKey>() {
 
           @Override
           public ShapeKey next() {
-            k = keyIterator.next();
-            return k;
+            return shape.keyAt(nextIdx());
           }
 
-          @Override
-          public void remove() {
-            if (k == null){
-                throw new IllegalStateException("No item to remove. You did not call .next() or you've called .remove() more than once");
-            }
-            keyIterator.remove();
-            ShapeMap.this.clearKeyData(k);
-            k = null;
-          }
         };
       }
 
       @Override
       public int size() {
-          return ShapeMap.this.keys.size();
+          return ShapeMap.this.size();
       }
 
       @Override
@@ -409,7 +781,7 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
       @Override
       public boolean contains(Object o) {
-        return ShapeMap.this.keys.contains(o);
+        return ShapeMap.this.containsKey(o);
       }
     };
   }
@@ -421,37 +793,27 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
       @Override
       public Iterator<T> iterator() {
 
-        return new Iterator<T>() {
-
-          private Iterator<ShapeKey> keyIterator = ShapeMap.this.keys.iterator();
-          private ShapeKey k = null;
-
-          @Override
-          public boolean hasNext() {
-            return keyIterator.hasNext();
-          }
+        return new IdxIterator<T>() {
 
           @Override
+          @SuppressWarnings("unchecked")
           public T next() {
-            k = keyIterator.next();
-            return ShapeMap.this.get(k);
+            return (T) storage[nextIdx()];
           }
 
-          @Override
-          public void remove() {
-
-            if (k == null){
-              throw new IllegalStateException("No item to remove. You did not call .next() or you've called .remove() more than once");
-            }
-
-            keyIterator.remove();
-            ShapeMap.this.clearKeyData(k);
-            k = null;
-          }
         };
 
       }
 
+      @Override
+      @SuppressWarnings("unchecked")
+      public void forEach(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+          action.accept((T) storage[idx]);
+        }
+      }
+
       @Override
       public int size() {
         return ShapeMap.this.size();
@@ -500,7 +862,7 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
         Map.Entry e = (Map.Entry) o;
         if (e.getKey() instanceof ShapeKey){
           ShapeKey k = (ShapeKey) e.getKey();
-          return ShapeMap.this.keys.contains(k) && Objects.equals(ShapeMap.this.get(k), e.getValue());
+          return ShapeMap.this.containsKey(k) && Objects.equals(ShapeMap.this.get(k), e.getValue());
         }
         else{
           return false;
@@ -510,31 +872,15 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
 
       @Override
       public Iterator<Entry<ShapeKey, T>> iterator() {
-        return new Iterator<Entry<ShapeKey, T>>() {
-
-          private Iterator<ShapeKey> keyIterator = ShapeMap.this.keys.iterator();
-          private ShapeKey k = null;
-
-          @Override
-          public boolean hasNext() {
-            return keyIterator.hasNext();
-          }
+        return new IdxIterator<Entry<ShapeKey, T>>() {
 
           @Override
+          @SuppressWarnings("unchecked")
           public Entry<ShapeKey, T> next() {
-            k = keyIterator.next();
-            return new MapEntry<>(ShapeMap.this, k, ShapeMap.this.get(k));
+            int idx = nextIdx();
+            return new MapEntry<>(ShapeMap.this, shape.keyAt(idx), (T) storage[idx]);
           }
 
-          @Override
-          public void remove() {
-            if (k == null){
-              throw new IllegalStateException("No item to remove. You did not call .next() or you've called .remove() more than once");
-            }
-            keyIterator.remove();
-            ShapeMap.this.clearKeyData(k);
-            k = null;
-          }
         };
       }
 
@@ -602,11 +948,9 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
       return false;
 
     try {
-      Iterator<Entry<ShapeKey,T>> i = entrySet().iterator();
-      while (i.hasNext()) {
-        Map.Entry<ShapeKey,T> e = i.next();
-        ShapeKey key = e.getKey();
-        T value = e.getValue();
+      for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+        ShapeKey key = shape.keyAt(idx);
+        Object value = storage[idx];
         if (value == null) {
           if (!(m.get(key)==null && m.containsKey(key)))
             return false;
@@ -624,243 +968,401 @@ public class ShapeMap<T> implements Map<ShapeKey, T>, Cloneable {
     return true;
   }
 
+  // same as the sum of entry hash codes, without creating entries
   public int hashCode() {
     int h = 0;
-    Iterator<Entry<ShapeKey,T>> i = entrySet().iterator();
-    while (i.hasNext())
-      h += i.next().hashCode();
+    for (int idx = nextPresent(1); idx > 0; idx = nextPresent(idx + 1)) {
+      Object value = storage[idx];
+      h += shape.keyAt(idx).hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
     return h;
   }
 
+  // accessors are safe to share between threads, typically as static constants
+  // the maps they access are not synchronized, each map must be confined to a thread
   public interface Accessor<T> {
     T get(ShapeMap<? extends T> shapeMap);
     T put(ShapeMap<? super T> shapeMap, T v);
     void set(ShapeMap<? super T> shapeMap, T v);
+
+    // gets the values of rows[from] to rows[to-1] into out[0] to out[to-from-1]
+    default void getAll(ShapeMap<? extends T>[] rows, int from, int to, Object[] out){
+      for (int i = from; i < to; i++) {
+        out[i - from] = get(rows[i]);
+      }
+    }
+
+    // gets the values of the queued rows into out, in queue order
+    @SuppressWarnings("unchecked")
+    default void getAll(Batch<? extends ShapeMap<? extends T>> rows, Object[] out){
+      Object[] data = rows.data;
+      for (int i = rows.start(); i < rows.end(); i++) {
+        out[i - rows.start()] = get((ShapeMap<? extends T>) data[i]);
+      }
+    }
+
+    // sets the values of rows[from] to rows[to-1] to values[0] to values[to-from-1]
+    default void setAll(ShapeMap<? super T>[] rows, int from, int to, T[] values){
+      for (int i = from; i < to; i++) {
+        set(rows[i], values[i - from]);
+      }
+    }
+
+    // sets the values of the queued rows to values, in queue order
+    @SuppressWarnings("unchecked")
+    default void setAll(Batch<? extends ShapeMap<? super T>> rows, T[] values){
+      Object[] data = rows.data;
+      for (int i = rows.start(); i < rows.end(); i++) {
+        set((ShapeMap<? super T>) data[i], values[i - rows.start()]);
+      }
+    }
+
+    // the operations below treat null values as absent, remapping functions must not change the map
+    // accessors created by ShapeMap.accessor look up the key once, and remove the key on a null result
+    // the default implementations are built on get and set, and store a null result instead
+
+    // the value of the key, defaultValue if there is none
+    default T getOrDefault(ShapeMap<? extends T> shapeMap, T defaultValue){
+      T v = get(shapeMap);
+      return v != null ? v : defaultValue;
+    }
+
+    // sets the value unless there is one, returns the previous value
+    @SuppressWarnings("unchecked")
+    default T putIfAbsent(ShapeMap<? super T> shapeMap, T v){
+      T prev = get((ShapeMap<? extends T>) (ShapeMap<?>) shapeMap);
+      if (prev == null) set(shapeMap, v);
+      return prev;
+    }
+
+    // replaces the value with the result of fn applied to it, removes the key if the result is null
+    // returns the new value
+    @SuppressWarnings("unchecked")
+    default T compute(ShapeMap<? super T> shapeMap, Function<? super T, ? extends T> fn){
+      T v = fn.apply(get((ShapeMap<? extends T>) (ShapeMap<?>) shapeMap));
+      set(shapeMap, v);
+      return v;
+    }
+
+    // sets v if there is no value, or the result of fn applied to the value and v otherwise
+    // removes the key if the result is null, returns the new value
+    @SuppressWarnings("unchecked")
+    default T merge(ShapeMap<? super T> shapeMap, T v, BiFunction<? super T, ? super T, ? extends T> fn){
+      Objects.requireNonNull(v);
+      T prev = get((ShapeMap<? extends T>) (ShapeMap<?>) shapeMap);
+      T merged = prev == null ? v : fn.apply(prev, v);
+      set(shapeMap, merged);
+      return merged;
+    }
+
+    // adds delta to a numeric value, taking no value as 0, and stores the sum as a Long
+    // returns the sum
+    @SuppressWarnings("unchecked")
+    default long addLong(ShapeMap<? super T> shapeMap, long delta){
+      Object prev = get((ShapeMap<? extends T>) (ShapeMap<?>) shapeMap);
+      long sum = prev == null ? delta : ((Number) prev).longValue() + delta;
+      set(shapeMap, (T) (Object) sum);
+      return sum;
+    }
+
+    // adds delta to a numeric value, taking no value as 0, and stores the sum as a Double
+    // returns the sum
+    @SuppressWarnings("unchecked")
+    default double addDouble(ShapeMap<? super T> shapeMap, double delta){
+      Object prev = get((ShapeMap<? extends T>) (ShapeMap<?>) shapeMap);
+      double sum = prev == null ? delta : ((Number) prev).doubleValue() + delta;
+      set(shapeMap, (T) (Object) sum);
+      return sum;
+    }
   }
 
   private static class PolymorphicAccessor<T> implements ShapeMap.Accessor<T> {
 
     private final ShapeKey k;
-    private Shape shape1;
-    private Shape shape2;
-    private Shape shape3;
-    private Shape shape4;
 
-    private int idx1 = 0;
-    private int idx2 = 0;
-    private int idx3 = 0;
-    private int idx4 = 0;
+    // inline cache, entries are immutable and written as a whole
+    private ShapeIndex e1;
+    private ShapeIndex e2;
+    private ShapeIndex e3;
+    private ShapeIndex e4;
+
+    // shapes seen after the inline slots are taken
+    private volatile ShapeIndexCache cache;
 
     public PolymorphicAccessor(ShapeKey k) {
       this.k = k;
     }
 
-    @SuppressWarnings("unchecked")
-    public T get(ShapeMap<? extends T> shapeMap){
+    // index of k in shape s, 0 if k is not part of s
+    private int idxFor(Shape s){
 
-      final Shape s = shapeMap.shape;
-      final Object[] storage = shapeMap.storage;
+      ShapeIndex e;
+      if ((e = e1) != null && e.shape == s) return e.idx;
+      if ((e = e2) != null && e.shape == s) return e.idx;
+      if ((e = e3) != null && e.shape == s) return e.idx;
+      if ((e = e4) != null && e.shape == s) return e.idx;
 
-      if (s == shape1){
-        return (T) storage[idx1];
-      }
-      else if (s == shape2){
-        return (T) storage[idx2];
-      }
-      else if (s == shape3){
-        return (T) storage[idx3];
-      }
-      else if (s == shape4){
-        return (T) storage[idx4];
+      return learn(s);
+
+    }
+
+    // learns the index for up to four shapes inline, further shapes go to the cache
+    private int learn(Shape s){
+
+      // dictionary shapes change in place and belong to a single map
+      if (s.isDictionary()) return s.idxFor(k);
+
+      ShapeIndexCache c = cache;
+      if (c != null){
+        int idx = c.get(s);
+        if (idx >= 0) return idx;
       }
-      else if (shape1 == null){
-        shape1 = s;
-        idx1 = s.idxFor(k);
-        return (T) storage[idx1];
+
+      int idx = s.idxFor(k);
+      ShapeIndex e = new ShapeIndex(s, idx);
+
+      // threads learning concurrently may overwrite each other's entries
+      // that only costs a later miss, entries are always consistent
+      if (e1 == null){
+        e1 = e;
       }
-      else if (shape2 == null){
-        shape2 = s;
-        idx2 = s.idxFor(k);
-        return (T) storage[idx2];
+      else if (e2 == null){
+        e2 = e;
       }
-      else if (shape3 == null){
-        shape3 = s;
-        idx3 = s.idxFor(k);
-        return (T) storage[idx3];
+      else if (e3 == null){
+        e3 = e;
       }
-      else if (shape4 == null){
-        shape4 = s;
-        idx4 = s.idxFor(k);
-        return (T) storage[idx4];
+      else if (e4 == null){
+        e4 = e;
       }
-      else{
-        return (T) storage[s.idxFor(k)];
+      else {
+        if (c == null){
+          cache = c = new ShapeIndexCache();
+        }
+        c.put(s, idx);
       }
 
+      return idx;
+    }
+
+    // index of k in given map, extends the map's shape by k if necessary
+    private int assocIdxFor(ShapeMap m){
+
+      int idx = idxFor(m.shape);
+      if (idx > 0) return idx;
+
+      // shape needs extending
+      m.extendShapeBy(k);
+      return idxFor(m.shape);
+
     }
 
     @SuppressWarnings("unchecked")
-    private Shape extendAssocBy(ShapeMap m, ShapeKey k){
-      Shape newShape = Shapes.extendBy(m.shape, k);
-      m.shape = newShape;
-      m.keys.add(k);
-      newShape.ensureCapacity(m);
-      m.presence[newShape.idxFor(k)] = k;
-      return newShape;
+    public T get(ShapeMap<? extends T> shapeMap){
+      // storage of absent keys is always null
+      return (T) shapeMap.storage[idxFor(shapeMap.shape)];
     }
 
     @SuppressWarnings("unchecked")
     public T put(ShapeMap<? super T> shapeMap, T v){
 
-      final Shape s = shapeMap.shape;
+      final int idx = assocIdxFor(shapeMap);
       final Object[] storage = shapeMap.storage;
 
-      if (s == shape1){
-        T o = (T) storage[idx1];
-        storage[idx1] = v;
-        return o;
+      T o = (T) storage[idx];
+      storage[idx] = v;
+      if (!shapeMap.isPresent(idx)){
+        shapeMap.addPresent(idx);
       }
+      return o;
 
-      if (s == shape2){
-        T o = (T) storage[idx2];
-        storage[idx2] = v;
-        return o;
-      }
+    }
 
-      if (s == shape3){
-        T o = (T) storage[idx3];
-        storage[idx3] = v;
-        return o;
-      }
+    public void set(ShapeMap<? super T> shapeMap, T v){
 
-      if (s == shape4){
-        T o = (T) storage[idx4];
-        storage[idx4] = v;
-        return o;
+      final int idx = assocIdxFor(shapeMap);
+
+      shapeMap.storage[idx] = v;
+      if (!shapeMap.isPresent(idx)){
+        shapeMap.addPresent(idx);
       }
 
-      if (shape1 == null){
-        shape1 = extendAssocBy(shapeMap, k);
+    }
 
-        idx1 = shape1.idxFor(k);
-        T o = (T) shapeMap.storage[idx1];
-        shapeMap.storage[idx1] = v;
-        return o;
-      }
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getOrDefault(ShapeMap<? extends T> shapeMap, T defaultValue){
+      T v = (T) shapeMap.storage[idxFor(shapeMap.shape)];
+      return v != null ? v : defaultValue;
+    }
 
-      if (shape2 == null){
-        shape2 = extendAssocBy(shapeMap, k);
+    @Override
+    @SuppressWarnings("unchecked")
+    public T putIfAbsent(ShapeMap<? super T> shapeMap, T v){
 
-        idx2 = shape2.idxFor(k);
-        T o = (T) shapeMap.storage[idx2];
-        shapeMap.storage[idx2] = v;
-        return o;
+      int idx = idxFor(shapeMap.shape);
+      T prev = (T) shapeMap.storage[idx];
+      if (prev == null){
+        store(shapeMap, idx > 0 ? idx : assocIdxFor(shapeMap), v);
       }
+      return prev;
 
-      if (shape3 == null){
-        shape3 = extendAssocBy(shapeMap, k);
+    }
 
-        idx3 = shape3.idxFor(k);
-        T o = (T) shapeMap.storage[idx3];
-        shapeMap.storage[idx3] = v;
-        return o;
-      }
+    @Override
+    @SuppressWarnings("unchecked")
+    public T compute(ShapeMap<? super T> shapeMap, Function<? super T, ? extends T> fn){
+
+      int idx = idxFor(shapeMap.shape);
+      T v = fn.apply((T) shapeMap.storage[idx]);
+      update(shapeMap, idx, v);
+      return v;
+
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T merge(ShapeMap<? super T> shapeMap, T v, BiFunction<? super T, ? super T, ? extends T> fn){
+
+      Objects.requireNonNull(v);
+      int idx = idxFor(shapeMap.shape);
+      T prev = (T) shapeMap.storage[idx];
+      T merged = prev == null ? v : fn.apply(prev, v);
+      update(shapeMap, idx, merged);
+      return merged;
+
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public long addLong(ShapeMap<? super T> shapeMap, long delta){
+
+      int idx = idxFor(shapeMap.shape);
+      Object prev = shapeMap.storage[idx];
+      long sum = prev == null ? delta : ((Number) prev).longValue() + delta;
+      store(shapeMap, idx > 0 ? idx : assocIdxFor(shapeMap), (T) Long.valueOf(sum));
+      return sum;
 
-      if (shape4 == null){
-        shape4 = extendAssocBy(shapeMap, k);
+    }
 
-        idx4 = shape4.idxFor(k);
-        T o = (T) shapeMap.storage[idx4];
-        shapeMap.storage[idx4] = v;
-        return o;
+    @Override
+    @SuppressWarnings("unchecked")
+    public double addDouble(ShapeMap<? super T> shapeMap, double delta){
+
+      int idx = idxFor(shapeMap.shape);
+      Object prev = shapeMap.storage[idx];
+      double sum = prev == null ? delta : ((Number) prev).doubleValue() + delta;
+      store(shapeMap, idx > 0 ? idx : assocIdxFor(shapeMap), (T) Double.valueOf(sum));
+      return sum;
+
+    }
+
+    // stores v at index idx of the map, recording a new mapping if there is none
+    private void store(ShapeMap<? super T> shapeMap, int idx, T v){
+      shapeMap.storage[idx] = v;
+      if (!shapeMap.isPresent(idx)){
+        shapeMap.addPresent(idx);
       }
+    }
 
-      int idx = shapeMap.shape.idxFor(k);
-      // key present?
-      if (idx > 0) {
-        T o = (T) storage[idx];
-        shapeMap.storage[idx] = v;
-        return o;
+    // stores a computed value found at index idx, removes the key if v is null
+    private void update(ShapeMap<? super T> shapeMap, int idx, T v){
+      if (v != null){
+        store(shapeMap, idx > 0 ? idx : assocIdxFor(shapeMap), v);
       }
-      // shape needs extending
-      else{
-        Shape newShape = extendAssocBy(shapeMap, k);
-        idx = newShape.idxFor(k);
-        T o = (T) shapeMap.storage[idx];
-        shapeMap.storage[idx] = v;
-        return o;
+      else if (shapeMap.isPresent(idx)){
+        shapeMap.remove(k);
       }
+    }
 
+    @Override
+    public void getAll(ShapeMap<? extends T>[] rows, int from, int to, Object[] out){
+      gather(rows, from, to, out);
     }
 
-    public void set(ShapeMap<? super T> shapeMap, T v){
+    @Override
+    public void getAll(Batch<? extends ShapeMap<? extends T>> rows, Object[] out){
+      gather(rows.data, rows.start(), rows.end(), out);
+    }
 
-      final Shape s = shapeMap.shape;
-      final Object[] storage = shapeMap.storage;
+    @Override
+    public void setAll(ShapeMap<? super T>[] rows, int from, int to, T[] values){
+      scatter(rows, from, to, values);
+    }
 
-      if (s == shape1){
-        storage[idx1] = v;
-        return;
-      }
+    @Override
+    public void setAll(Batch<? extends ShapeMap<? super T>> rows, T[] values){
+      scatter(rows.data, rows.start(), rows.end(), values);
+    }
 
-      if (s == shape2){
-        storage[idx2] = v;
-        return;
-      }
+    // copies values of rows to out, looking up the index once per run of rows of the same shape
+    private void gather(Object[] rows, int from, int to, Object[] out){
 
-      if (s == shape3){
-        storage[idx3] = v;
-        return;
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
+        ShapeMap<?> m = (ShapeMap<?>) rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = idxFor(s);
+        }
+        // storage of absent keys is always null
+        out[i - from] = m.storage[idx];
       }
 
-      if (s == shape4){
-        storage[idx4] = v;
-        return;
-      }
+    }
 
-      if (shape1 == null){
-        shape1 = extendAssocBy(shapeMap, k);
+    // copies values to rows, looking up the index once per run of rows of the same shape
+    private void scatter(Object[] rows, int from, int to, Object[] values){
 
-        idx1 = shape1.idxFor(k);
-        shapeMap.storage[idx1] = v;
-        return;
-      }
+      Shape s = null;
+      int idx = 0;
+      for (int i = from; i < to; i++) {
 
-      if (shape2 == null){
-        shape2 = extendAssocBy(shapeMap, k);
+        ShapeMap<?> m = (ShapeMap<?>) rows[i];
+        if (m.shape != s){
+          s = m.shape;
+          idx = idxFor(s);
+        }
 
-        idx2 = shape2.idxFor(k);
-        shapeMap.storage[idx2] = v;
-        return;
-      }
+        // rows without the key transition to a shape having it
+        int at = idx > 0 ? idx : assocIdxFor(m);
+        m.storage[at] = values[i - from];
+        if (!m.isPresent(at)){
+          m.addPresent(at);
+        }
 
-      if (shape3 == null){
-        shape3 = extendAssocBy(shapeMap, k);
-        idx3 = shape3.idxFor(k);
-        shapeMap.storage[idx3] = v;
-        return;
       }
 
-      if (shape4 == null){
-        shape4 = extendAssocBy(shapeMap, k);
+    }
 
-        idx4 = shape4.idxFor(k);
-        shapeMap.storage[idx4] = v;
-        return;
-      }
+  }
 
-      int idx = shapeMap.shape.idxFor(k);
-      // key present?
-      if (idx > 0) {
-        shapeMap.storage[idx] = v;
-      }
-      // shape needs extending
-      else{
-        Shape newShape = extendAssocBy(shapeMap, k);
-        shapeMap.storage[newShape.idxFor(k)] = v;
-      }
+  // iterates over the storage indexes of present mappings in slot order
+  private abstract class IdxIterator<E> implements Iterator<E> {
+
+    private int next = nextPresent(1);
+    private int current = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next > 0;
+    }
 
+    int nextIdx(){
+      if (next < 0) throw new NoSuchElementException();
+      current = next;
+      next = nextPresent(current + 1);
+      return current;
+    }
 
+    @Override
+    public void remove() {
+      if (current < 0){
+        throw new IllegalStateException("No item to remove. You did not call .next() or you've called .remove() more than once");
+      }
+      ShapeMap.this.removeAt(current);
+      current = -1;
     }
 
   }
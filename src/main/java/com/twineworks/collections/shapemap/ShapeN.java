@@ -24,143 +24,103 @@
 
 package com.twineworks.collections.shapemap;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
-class ShapeN implements Shape {
+class ShapeN extends AbstractShape {
+
+  // largest index table is this many times the amount of slots,
+  // used when looking for a collision-free table layout
+  private static final int MAX_SPREAD = 8;
 
   // keys in shape
   public final HashSet<ShapeKey> keys;
 
-  // which indexes they are stored in
-  public final HashMap<ShapeKey, Integer> keyIntMap;
-
-  // which other shapes have been derived from this shape
-  public final HashMap<HashSet<ShapeKey>, Shape> transitions = new HashMap<>(32, 0.65f);
+  // index: open addressing table over key ids, keys are compared by identity
+  // idxKeys[i] is a key in the shape, and idxSlots[i] its index in storage
+  private final ShapeKey[] idxKeys;
+  private final int[] idxSlots;
+  private final int idxMask;
 
-  private ShapeN(HashSet<ShapeKey> keys, HashMap<ShapeKey, Integer> keyIntMap){
+  ShapeN(Shape parent, HashSet<ShapeKey> keys, ShapeKey[] slots){
+    super(parent, slots);
     this.keys = keys;
-    this.keyIntMap = keyIntMap;
-  }
 
-  public ShapeN(Set<ShapeKey> keys) {
-    this.keys = new HashSet<>(keys);
-    keyIntMap = new HashMap<>(Math.max(keys.size() * 2, 16), 0.65f);
-
-    int i = 1;
-    for (ShapeKey key : keys) {
-      keyIntMap.put(key, i);
-      i+=1;
+    int capacity = indexCapacity(slots);
+    idxKeys = new ShapeKey[capacity];
+    idxSlots = new int[capacity];
+    idxMask = capacity - 1;
+
+    for (int i = 1; i < slots.length; i++) {
+      ShapeKey k = slots[i];
+      if (k == null) continue;
+      int pos = k.id & idxMask;
+      while (idxKeys[pos] != null){
+        pos = (pos + 1) & idxMask;
+      }
+      idxKeys[pos] = k;
+      idxSlots[pos] = i;
     }
-
-  }
-
-  @Override
-  public int idxFor(ShapeKey k) {
-    Integer val = keyIntMap.get(k);
-    if (val == null) return 0;
-    return val;
   }
 
-  @Override
-  public void init(ShapeMap m) {
-    m.storage = new Object[(keys.size()+1)*2];
-    m.presence = new ShapeKey[(keys.size()+1)*2];
+  public ShapeN(Set<ShapeKey> keys) {
+    this(null, new HashSet<>(keys), slotsFor(keys));
   }
 
-  @Override
-  public void ensureCapacity(ShapeMap m) {
-
-    int targetLen = keys.size()+1;
-    int currentLen = m.storage.length;
-    Object[] s = m.storage;
-    Object[] p = m.presence;
+  // picks the smallest power of two table of at least twice the amount of keys
+  // in which no two keys collide, so lookups of present keys take a single probe
+  // if there is no such table up to MAX_SPREAD times the amount of keys, picks
+  // the smallest table, and lookups resolve collisions by linear probing
+  private static int indexCapacity(ShapeKey[] slots){
 
-    if (currentLen < targetLen){
-      Object[] a = new Object[targetLen*2];
-      System.arraycopy(s, 0, a, 0, s.length);
-      m.storage = a;
+    int minCapacity = Integer.highestOneBit(Math.max(slots.length, 2) * 2 - 1);
+    if (minCapacity < slots.length * 2) minCapacity <<= 1;
+    int maxCapacity = minCapacity * (MAX_SPREAD / 2);
 
-      ShapeKey[] b = new ShapeKey[targetLen*2];
-      System.arraycopy(p, 0, b, 0, p.length);
-      m.presence = b;
+    boolean[] taken = new boolean[maxCapacity];
+    for (int capacity = minCapacity; capacity <= maxCapacity; capacity <<= 1) {
+      if (isCollisionFree(slots, taken, capacity)) return capacity;
     }
 
+    return minCapacity;
   }
 
-  @Override
-  public int size() {
-    return keys.size();
+  private static boolean isCollisionFree(ShapeKey[] slots, boolean[] taken, int capacity){
+    Arrays.fill(taken, 0, capacity, false);
+    int mask = capacity - 1;
+    for (ShapeKey k : slots) {
+      if (k == null) continue;
+      int pos = k.id & mask;
+      if (taken[pos]) return false;
+      taken[pos] = true;
+    }
+    return true;
   }
 
   @Override
-  public void initConst(ConstShapeMap m) {
-    m.storage = new Object[(keys.size()+1)];
+  public int idxFor(ShapeKey k) {
+    if (k == null) return 0;
+    final ShapeKey[] idxKeys = this.idxKeys;
+    final int mask = idxMask;
+    int pos = k.id & mask;
+    while (true){
+      ShapeKey c = idxKeys[pos];
+      if (c == k) return idxSlots[pos];
+      if (c == null) return 0;
+      pos = (pos + 1) & mask;
+    }
   }
 
   @Override
-  @SuppressWarnings("unchecked")
-  public synchronized Shape extendBy(Set<ShapeKey> byKeys) {
-
-    // byKeys -> potentially new keys to add to existing
-    // toKeys -> new set of all keys in shape
-
-    HashSet<ShapeKey> toKeys = (HashSet<ShapeKey>) keys.clone();
-    toKeys.addAll(byKeys);
-
-    // existing transition available?
-    Shape shape = transitions.get(toKeys);
-    if (shape != null) return shape;
-
-    // no existing transition available, copy shape and add keys to the copy,
-    // keeping existing indexes as they are
-    HashMap<ShapeKey, Integer> newKeyIntMap = (HashMap<ShapeKey, Integer>) keyIntMap.clone();
-
-    int idx = keys.size()+1;
-    for(ShapeKey newKey : byKeys){
-      if (!newKeyIntMap.containsKey(newKey)){
-        newKeyIntMap.put(newKey, idx);
-        idx += 1;
-      }
-    }
-
-    Shape newShape = new ShapeN(toKeys, newKeyIntMap);
-    transitions.put(toKeys, newShape);
-    return newShape;
-
+  public int size() {
+    return keys.size();
   }
 
-
-
   @Override
   @SuppressWarnings("unchecked")
-  public synchronized Shape shrinkBy(Set<ShapeKey> byKeys) {
-
-    // byKeys -> keys to remove from existing
-    // toKeys -> new set of all keys in shape
-
-    HashSet<ShapeKey> toKeys = (HashSet<ShapeKey>) keys.clone();
-    toKeys.removeAll(byKeys);
-
-    // existing transition available?
-    Shape shape = transitions.get(toKeys);
-    if (shape != null) return shape;
-
-    // no existing transition available, copy shape and skip keys in the copy,
-    // keeping existing indexes as they are
-    HashMap<ShapeKey, Integer> newKeyIntMap = (HashMap<ShapeKey, Integer>) keyIntMap.clone();
-
-    for(ShapeKey rmKey : byKeys){
-      if (newKeyIntMap.containsKey(rmKey)){
-        newKeyIntMap.remove(rmKey);
-      }
-    }
-
-    Shape newShape = new ShapeN(toKeys, newKeyIntMap);
-    transitions.put(toKeys, newShape);
-    return newShape;
-
+  HashSet<ShapeKey> copyKeys() {
+    return (HashSet<ShapeKey>) keys.clone();
   }
 
   @Override
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+/**
+ * Resolves the storage indexes of a fixed list of keys in shapes, and caches
+ * them per shape. Backs projections and accessor groups.
+ *
+ * The plan used last is kept inline, others go to a direct mapped table keyed
+ * by shape identity, evicting whatever occupies their slot. Plans are immutable,
+ * racing threads can only lose plans, which costs a later miss. Plans for
+ * dictionary shapes are resolved on every use, as those shapes change in place.
+ */
+final class ShapePlans {
+
+  // how many shapes are cached at most
+  static final int MAX_PLANS = 64;
+
+  // storage index of each key in a shape, 0 if the key is not in the shape
+  private static final class Plan {
+
+    private final Shape shape;
+    private final int[] idxs;
+
+    private Plan(Shape shape, int[] idxs) {
+      this.shape = shape;
+      this.idxs = idxs;
+    }
+  }
+
+  private final ShapeKey[] keys;
+
+  private volatile Plan last;
+  private final Plan[] plans = new Plan[MAX_PLANS];
+
+  ShapePlans(ShapeKey[] keys){
+    this.keys = keys;
+  }
+
+  // storage indexes of the keys in shape s, in key order
+  // callers must not modify the returned array
+  int[] planFor(Shape s){
+
+    Plan p = last;
+    if (p != null && p.shape == s) return p.idxs;
+
+    if (s.isDictionary()) return resolve(s);
+
+    final Plan[] t = plans;
+    int i = s.hashCode() & (t.length - 1);
+    p = t[i];
+    if (p == null || p.shape != s){
+      p = new Plan(s, resolve(s));
+      t[i] = p;
+    }
+    last = p;
+    return p.idxs;
+
+  }
+
+  private int[] resolve(Shape s){
+    int[] idxs = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      idxs[i] = s.idxFor(keys[i]);
+    }
+    return idxs;
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.*;
+
+/**
+ * Converts maps to maps of other keys by selecting, renaming and reordering keys.
+ *
+ * A projection resolves where each of its source keys is stored in a source
+ * shape once, and caches that as a plan per source shape. Projecting a map
+ * of a known shape then gathers values from its storage into the storage of
+ * the target map, without looking up keys.
+ *
+ * Projections are safe to share between threads, typically as static constants.
+ */
+public final class ShapeProjection {
+
+  private final ShapeTemplate target;
+
+  // storage indexes of the source key of each target key, in template order,
+  // per source shape
+  private final ShapePlans plans;
+
+  private ShapeProjection(Map<ShapeKey, ShapeKey> sourceToTarget){
+
+    ArrayList<ShapeKey> targetKeys = new ArrayList<>(sourceToTarget.size());
+    HashSet<ShapeKey> seen = new HashSet<>();
+    for (Map.Entry<ShapeKey, ShapeKey> e : sourceToTarget.entrySet()) {
+      ShapeKey source = Objects.requireNonNull(e.getKey());
+      ShapeKey targetKey = Objects.requireNonNull(e.getValue());
+      if (!seen.add(targetKey)){
+        throw new IllegalArgumentException("duplicate target key: "+targetKey);
+      }
+      targetKeys.add(targetKey);
+    }
+
+    target = new ShapeTemplate(targetKeys);
+
+    ShapeKey[] sources = new ShapeKey[target.keys.length];
+    int i = 0;
+    for (ShapeKey source : sourceToTarget.keySet()) {
+      sources[i++] = source;
+    }
+    plans = new ShapePlans(sources);
+
+  }
+
+  // keeps given keys, in given order
+  public static ShapeProjection select(ShapeKey... keys){
+    LinkedHashMap<ShapeKey, ShapeKey> m = new LinkedHashMap<>();
+    for (ShapeKey key : keys) {
+      m.put(key, key);
+    }
+    return new ShapeProjection(m);
+  }
+
+  // convenience method
+  public static ShapeProjection select(String... keys){
+    LinkedHashMap<ShapeKey, ShapeKey> m = new LinkedHashMap<>();
+    for (String key : keys) {
+      ShapeKey k = ShapeKey.get(key);
+      m.put(k, k);
+    }
+    return new ShapeProjection(m);
+  }
+
+  // keeps the keys of given map, stored under the keys they map to
+  // the map's iteration order is the order of target keys
+  public static ShapeProjection of(Map<ShapeKey, ShapeKey> sourceToTarget){
+    return new ShapeProjection(sourceToTarget);
+  }
+
+  // the template of target maps
+  public ShapeTemplate target(){
+    return target;
+  }
+
+  // a map of the target keys, holding the values of their source keys in m
+  // target keys whose source keys are not in m are not in the result
+  @SuppressWarnings("unchecked")
+  public <T> ShapeMap<T> apply(ShapeMap<? extends T> m){
+
+    int[] from = plans.planFor(m.shape);
+    int[] to = target.idxs;
+    Object[] src = m.storage;
+
+    ShapeMap<T> r = target.newShapeMap();
+    Object[] dst = r.storage;
+    for (int i = 0; i < from.length; i++) {
+      int idx = from[i];
+      if (idx > 0 && m.isPresent(idx)){
+        dst[to[i]] = src[idx];
+      }
+      else {
+        r.removeAt(to[i]);
+      }
+    }
+    return r;
+
+  }
+
+  // a map of the target keys, holding the values of their source keys in m
+  // target keys whose source keys are not in m are mapped to null
+  public <T> ConstShapeMap<T> apply(ConstShapeMap<? extends T> m){
+
+    int[] from = plans.planFor(m.shape);
+    int[] to = target.idxs;
+
+    ConstShapeMap<T> r = target.newConstShapeMap();
+    Object[] dst = r.storage;
+    for (int i = 0; i < from.length; i++) {
+      // index 0 of const storage is never used, and always null
+      // values of typed slots are boxed
+      dst[to[i]] = m.valueAt(from[i]);
+    }
+    return r;
+
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.*;
+
+/**
+ * A pre-resolved shape for constructing maps of a fixed set of keys.
+ *
+ * Resolving a shape for a set of keys hashes the whole key set into the
+ * intern table. A template does that once, and stamps out pre-sized
+ * ShapeMaps and ConstShapeMaps by copying arrays only. Values can be
+ * given in the order of the template's keys.
+ *
+ * Templates are immutable, and safe to share between threads. A template
+ * keeps its shape alive for as long as it is reachable.
+ */
+public final class ShapeTemplate {
+
+  // keys in template order, and their storage indexes
+  final ShapeKey[] keys;
+  final int[] idxs;
+
+  // empty maps of the template's shape, copied when stamping out maps
+  // never handed out
+  private final ShapeMap<Object> prototype;
+  private final ConstShapeMap<Object> constPrototype;
+
+  ShapeTemplate(Collection<ShapeKey> keys){
+
+    LinkedHashSet<ShapeKey> keySet = new LinkedHashSet<>(keys);
+    if (keySet.contains(null)) throw new NullPointerException("Keys cannot be null");
+
+    this.keys = keySet.toArray(new ShapeKey[0]);
+    this.prototype = new ShapeMap<>(keySet);
+    this.constPrototype = new ConstShapeMap<>(keySet);
+
+    this.idxs = new int[this.keys.length];
+    for (int i = 0; i < this.keys.length; i++) {
+      idxs[i] = prototype.shape.idxFor(this.keys[i]);
+    }
+
+  }
+
+  public Shape shape(){
+    return prototype.shape;
+  }
+
+  // keys in template order
+  public List<ShapeKey> keys(){
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  public int size(){
+    return keys.length;
+  }
+
+  // a map with all template keys present, mapped to null
+  @SuppressWarnings("unchecked")
+  public <T> ShapeMap<T> newShapeMap(){
+    return new ShapeMap<T>(prototype);
+  }
+
+  // a map with all template keys present, mapped to values given in template order
+  @SafeVarargs
+  public final <T> ShapeMap<T> newShapeMap(T... values){
+    checkValues(values.length);
+    ShapeMap<T> m = newShapeMap();
+    Object[] storage = m.storage;
+    for (int i = 0; i < values.length; i++) {
+      storage[idxs[i]] = values[i];
+    }
+    return m;
+  }
+
+  // a map with all template keys present, mapped to the values of the keys' strings in map
+  // map must have exactly the template keys
+  public <T> ShapeMap<T> newShapeMap(Map<String, ? extends T> map){
+    ShapeMap<T> m = newShapeMap();
+    fill(m.storage, map);
+    return m;
+  }
+
+  // a map of the template keys, all mapped to null
+  @SuppressWarnings("unchecked")
+  public <T> ConstShapeMap<T> newConstShapeMap(){
+    return new ConstShapeMap<T>(constPrototype);
+  }
+
+  // a map of the template keys, mapped to values given in template order
+  @SafeVarargs
+  public final <T> ConstShapeMap<T> newConstShapeMap(T... values){
+    checkValues(values.length);
+    ConstShapeMap<T> m = newConstShapeMap();
+    Object[] storage = m.storage;
+    for (int i = 0; i < values.length; i++) {
+      storage[idxs[i]] = values[i];
+    }
+    return m;
+  }
+
+  // a map of the template keys, mapped to the values of the keys' strings in map
+  // map must have exactly the template keys
+  public <T> ConstShapeMap<T> newConstShapeMap(Map<String, ? extends T> map){
+    ConstShapeMap<T> m = newConstShapeMap();
+    fill(m.storage, map);
+    return m;
+  }
+
+  private void checkValues(int count){
+    if (count != keys.length){
+      throw new IllegalArgumentException("expected "+keys.length+" values, got "+count);
+    }
+  }
+
+  private void fill(Object[] storage, Map<String, ?> map){
+
+    if (map.size() != keys.length){
+      throw new IllegalArgumentException("expected "+keys.length+" keys, got "+map.size());
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      String sym = keys[i].sym;
+      Object value = map.get(sym);
+      if (value == null && !map.containsKey(sym)){
+        throw new IllegalArgumentException("missing key: "+sym);
+      }
+      storage[idxs[i]] = value;
+    }
+
+  }
+
+}
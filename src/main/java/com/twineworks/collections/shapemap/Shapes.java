@@ -26,18 +26,161 @@ package com.twineworks.collections.shapemap;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-class Shapes {
+/**
+ * Interns shapes and keeps track of the transitions between them.
+ *
+ * Shapes for given key sets are interned weakly. Shapes derived from them by
+ * adding or removing keys are reachable through transitions, which are weak
+ * as well. A shape keeps the shapes it has been derived from alive, so shapes
+ * in use can always be found again, and all others can be reclaimed.
+ *
+ * The number of transitions can be capped with the system property
+ * {@code com.twineworks.collections.shapemap.maxTransitions} or
+ * {@link #setMaxTransitions(int)}. Once the cap is reached, maps making new
+ * changes to their shape get unregistered shapes that are not shared with
+ * other maps.
+ *
+ * Maps whose shape has gone through too many transitions, or would hold too
+ * many keys, switch to dictionary mode: they get a shape of their own which
+ * is extended in place. The limits are set through the system properties
+ * {@code com.twineworks.collections.shapemap.dictionaryDepth} and
+ * {@code com.twineworks.collections.shapemap.dictionarySize}, or
+ * {@link #setDictionaryDepth(int)} and {@link #setDictionarySize(int)}.
+ *
+ * Removing keys from a map leaves its shape unchanged. Maps can be moved to a
+ * shape of their present keys with ShapeMap.compact(). Maps compact
+ * automatically on removal once fewer than a given percentage of their
+ * shape's keys are present, if the system property
+ * {@code com.twineworks.collections.shapemap.compactPercent} or
+ * {@link #setCompactPercent(int)} sets one. Automatic compaction is off by default.
+ *
+ * Typed shapes, created through ConstShapeMap.typedShape, declare a
+ * {@link SlotType} per key so ConstShapeMaps can store numbers as primitives.
+ * They are interned by keys and slot types, separately from plain shapes,
+ * and never transition.
+ */
+public class Shapes {
+
+  public static final String MAX_TRANSITIONS_PROPERTY = "com.twineworks.collections.shapemap.maxTransitions";
+  public static final int DEFAULT_MAX_TRANSITIONS = 1 << 20;
 
   private static final ConcurrentHashMap<Set<ShapeKey>, Reference<Shape>> table = new ConcurrentHashMap<>();
   private static final ReferenceQueue<Shape> rq = new ReferenceQueue<>();
 
+  private static final ConcurrentHashMap<Map<ShapeKey, SlotType>, Reference<Shape>> typedTable = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Shape> typedRq = new ReferenceQueue<>();
+
+  public static final String DICTIONARY_DEPTH_PROPERTY = "com.twineworks.collections.shapemap.dictionaryDepth";
+  public static final int DEFAULT_DICTIONARY_DEPTH = 128;
+
+  public static final String DICTIONARY_SIZE_PROPERTY = "com.twineworks.collections.shapemap.dictionarySize";
+  public static final int DEFAULT_DICTIONARY_SIZE = 1024;
+
+  public static final String COMPACT_PERCENT_PROPERTY = "com.twineworks.collections.shapemap.compactPercent";
+  public static final int DEFAULT_COMPACT_PERCENT = 0;
+
+  // shapes of fewer keys are never compacted automatically
+  static final int COMPACT_MIN_KEYS = 16;
+
+  private static volatile int maxTransitions = Integer.getInteger(MAX_TRANSITIONS_PROPERTY, DEFAULT_MAX_TRANSITIONS);
+  private static volatile int dictionaryDepth = Integer.getInteger(DICTIONARY_DEPTH_PROPERTY, DEFAULT_DICTIONARY_DEPTH);
+  private static volatile int dictionarySize = Integer.getInteger(DICTIONARY_SIZE_PROPERTY, DEFAULT_DICTIONARY_SIZE);
+  private static volatile int compactPercent = Integer.getInteger(COMPACT_PERCENT_PROPERTY, DEFAULT_COMPACT_PERCENT);
+
+  private Shapes(){}
+
+  // the maximum number of transitions kept across all shapes
+  public static int maxTransitions(){
+    return maxTransitions;
+  }
+
+  public static void setMaxTransitions(int max){
+    if (max < 0){
+      throw new IllegalArgumentException("max transitions cannot be negative");
+    }
+    maxTransitions = max;
+  }
+
+  // maps whose shape has gone through this many transitions switch
+  // to dictionary mode on the next transition
+  public static int dictionaryDepth(){
+    return dictionaryDepth;
+  }
+
+  public static void setDictionaryDepth(int depth){
+    if (depth < 0){
+      throw new IllegalArgumentException("dictionary depth cannot be negative");
+    }
+    dictionaryDepth = depth;
+  }
+
+  // maps switch to dictionary mode when their shape would grow beyond this many keys
+  public static int dictionarySize(){
+    return dictionarySize;
+  }
+
+  public static void setDictionarySize(int size){
+    if (size < 0){
+      throw new IllegalArgumentException("dictionary size cannot be negative");
+    }
+    dictionarySize = size;
+  }
+
+  // whether a map adding given number of keys to shape s should
+  // switch to dictionary mode instead of transitioning to a shared shape
+  static boolean exceedsDictionaryLimits(Shape s, int added){
+    return s.depth() >= dictionaryDepth || s.size() + added > dictionarySize;
+  }
+
+  // maps compact automatically once fewer than this percentage of their shape's keys
+  // are present, 0 if maps never compact automatically
+  public static int compactPercent(){
+    return compactPercent;
+  }
+
+  public static void setCompactPercent(int percent){
+    if (percent < 0 || percent > 100){
+      throw new IllegalArgumentException("compact percentage must be between 0 and 100");
+    }
+    compactPercent = percent;
+  }
+
+  // whether a map of shape s holding given number of mappings should compact
+  static boolean shouldCompact(Shape s, int present){
+    int percent = compactPercent;
+    if (percent == 0) return false;
+    int keys = s.size();
+    return keys >= COMPACT_MIN_KEYS && present * 100L < (long) keys * percent;
+  }
+
+  // the number of transitions currently kept across all shapes
+  // transitions to reclaimed shapes are counted until they are purged
+  public static int transitionCount(){
+    return AbstractShape.transitionCount();
+  }
+
+  // the number of currently interned shapes, reclaimed shapes are
+  // counted until they are purged
+  public static int internedCount(){
+    return table.size() + typedTable.size();
+  }
+
+  // removes transitions and interned shapes that have been reclaimed
+  public static void purge(){
+    WeakRefCacheUtil.clear(rq, table);
+    WeakRefCacheUtil.clear(typedRq, typedTable);
+    AbstractShape.purgeTransitions();
+  }
+
   private static Shape intern(Set<ShapeKey> keys){
 
     Reference<Shape> existingRef = table.get(keys);
@@ -46,7 +189,9 @@ class Shapes {
       WeakRefCacheUtil.clear(rq, table);
 
       Shape s = createShapeForKeys(keys);
-      existingRef = table.putIfAbsent(keys, new WeakReference<>(s, rq));
+      // callers may mutate their key set later, intern a copy
+      HashSet<ShapeKey> internedKeys = new HashSet<>(keys);
+      existingRef = table.putIfAbsent(internedKeys, new WeakRefCacheUtil.KeyedWeakReference<>(internedKeys, s, rq));
 
       if(existingRef == null)
         return s;
@@ -64,7 +209,17 @@ class Shapes {
   }
 
   private static Shape createShapeForKeys(Set<ShapeKey> keys){
-    return new ShapeN(keys);
+    return createShape(null, new HashSet<>(keys), AbstractShape.slotsFor(keys));
+  }
+
+  // creates the shape implementation best suited for given layout
+  // slots[i] is the key stored at index i, keys are all keys in slots
+  // parent is the shape the new shape is derived from, if any
+  static Shape createShape(Shape parent, HashSet<ShapeKey> keys, ShapeKey[] slots){
+    if (slots.length <= Shape8.MAX_KEYS + 1){
+      return new Shape8(parent, slots);
+    }
+    return new ShapeN(parent, keys, slots);
   }
 
   public static Shape forKeySet(Set<ShapeKey> keys){
@@ -75,14 +230,52 @@ class Shapes {
     return intern(new HashSet<>(keys));
   }
 
+  // a shape of given keys, storing each key in a slot of given type
+  // typed shapes are for ConstShapeMaps only, see ConstShapeMap.typedShape
+  static Shape forTypedKeys(Map<ShapeKey, SlotType> types){
+
+    Reference<Shape> existingRef = typedTable.get(types);
+
+    if (existingRef == null){
+      WeakRefCacheUtil.clear(typedRq, typedTable);
+
+      // callers may mutate their map later, intern a copy
+      HashMap<ShapeKey, SlotType> internedTypes = new HashMap<>(types);
+      Shape s = createTypedShape(internedTypes);
+      existingRef = typedTable.putIfAbsent(internedTypes, new WeakRefCacheUtil.KeyedWeakReference<>(internedTypes, s, typedRq));
+
+      if (existingRef == null)
+        return s;
+    }
+
+    Shape existingShape = existingRef.get();
+
+    if (existingShape != null)
+      return existingShape;
+
+    // entry was gc'd in the interim
+    typedTable.remove(types, existingRef);
+    return forTypedKeys(types);
+  }
+
+  private static Shape createTypedShape(Map<ShapeKey, SlotType> types){
+
+    AbstractShape base = (AbstractShape) intern(types.keySet());
+    byte[] slotTypes = new byte[base.slots.length];
+    for (Map.Entry<ShapeKey, SlotType> e : types.entrySet()) {
+      slotTypes[base.idxFor(e.getKey())] = (byte) Objects.requireNonNull(e.getValue()).ordinal();
+    }
+    return new TypedShape(base, slotTypes);
+
+  }
+
 
   public static Shape extendBy(Shape s, Set<ShapeKey> keys){
     return s.extendBy(keys);
   }
 
   public static Shape extendBy(Shape s, ShapeKey key){
-    Set<ShapeKey> changeSet = Collections.singleton(key);
-    return extendBy(s, changeSet);
+    return s.extendBy(key);
   }
 
   public static Shape shrinkBy(Shape s, Set<ShapeKey> keys){
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A shape declaring which of its keys are stored as primitive long or double values.
+ *
+ * Typed shapes use the storage layout of the plain shape of their keys, and
+ * add the slot type of each index. They are meant for ConstShapeMaps, which
+ * never change their shape, so typed shapes do not transition.
+ */
+final class TypedShape extends AbstractShape {
+
+  // the plain shape of the same keys, which resolves keys to indexes
+  private final AbstractShape base;
+
+  // the SlotType ordinal of each index
+  final byte[] types;
+  private final boolean hasLongs;
+  private final boolean hasDoubles;
+
+  TypedShape(AbstractShape base, byte[] types){
+    super(null, base.slots);
+    this.base = base;
+    this.types = types;
+    boolean longs = false;
+    boolean doubles = false;
+    for (byte t : types) {
+      if (t == PrimitiveSlots.LONG) longs = true;
+      if (t == PrimitiveSlots.DOUBLE) doubles = true;
+    }
+    hasLongs = longs;
+    hasDoubles = doubles;
+  }
+
+  @Override
+  HashSet<ShapeKey> copyKeys() {
+    return base.copyKeys();
+  }
+
+  @Override
+  public int idxFor(ShapeKey k) {
+    return base.idxFor(k);
+  }
+
+  @Override
+  public Set<ShapeKey> keySet() {
+    return base.keySet();
+  }
+
+  @Override
+  public int size() {
+    return base.size();
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void init(ShapeMap m) {
+    throw new UnsupportedOperationException("typed shapes are for ConstShapeMaps only");
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void ensureCapacity(ShapeMap m) {
+    throw new UnsupportedOperationException("typed shapes are for ConstShapeMaps only");
+  }
+
+  @Override
+  public Shape extendBy(ShapeKey key) {
+    throw new UnsupportedOperationException("typed shapes cannot change");
+  }
+
+  @Override
+  public Shape extendBy(Set<ShapeKey> byKeys) {
+    throw new UnsupportedOperationException("typed shapes cannot change");
+  }
+
+  @Override
+  public Shape shrinkBy(Set<ShapeKey> byKeys) {
+    throw new UnsupportedOperationException("typed shapes cannot change");
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void initConst(ConstShapeMap m) {
+    int len = slots.length;
+    m.storage = new Object[len];
+    m.prims = new PrimitiveSlots(types,
+      hasLongs ? new long[len] : null,
+      hasDoubles ? new double[len] : null);
+  }
+
+}
@@ -27,25 +27,36 @@ package com.twineworks.collections.shapemap;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.util.Map;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
 
 class WeakRefCacheUtil {
 
+  // a weak reference that knows its key in the cache, so it can remove its own entry
+  static class KeyedWeakReference<T, K> extends WeakReference<K> {
+
+    final T key;
+
+    KeyedWeakReference(T key, K referent, ReferenceQueue<? super K> rq) {
+      super(referent, rq);
+      this.key = key;
+    }
+
+    // called once after the referent has been collected
+    void collected(){
+    }
+  }
+
+  // removes entries of collected references from the cache
+  // cost is proportional to the number of collected references, not the size of the cache
+  @SuppressWarnings("unchecked")
   static <K, T> void clear(ReferenceQueue<K> rq, ConcurrentHashMap<T, Reference<K>> cache){
-    //cleanup any dead entries
-    if(rq.poll() != null) { // there are weak-only-refs , i.e. only in cache map
-
-      //noinspection StatementWithEmptyBody
-      while(rq.poll() != null) // kick them all out, causing them to be gc'd
-        ;
-
-      // clear gc'd weak references from the table
-      for(Map.Entry<T, Reference<K>> e : cache.entrySet()) {
-        Reference<K> val = e.getValue();
-        if(val != null && val.get() == null)
-          cache.remove(e.getKey(), val);
-      }
+    Reference<? extends K> ref;
+    while((ref = rq.poll()) != null) {
+      // entry may have been replaced already, only remove if it is still this reference
+      KeyedWeakReference<T, K> keyedRef = (KeyedWeakReference<T, K>) ref;
+      cache.remove(keyedRef.key, keyedRef);
+      keyedRef.collected();
     }
   }
 
@@ -55,6 +55,20 @@ public class BatchTest {
     assertThat(batch.isEmpty()).isFalse();
   }
 
+  @Test
+  public void exposes_range_of_queued_items() throws Exception {
+    Batch<Object> batch = new Batch<>(3);
+    batch.add(0L);
+    batch.add(1L);
+    batch.add(2L);
+    batch.remove();
+
+    assertThat(batch.size()).isEqualTo(2);
+    assertThat(batch.start()).isEqualTo(1);
+    assertThat(batch.end()).isEqualTo(3);
+    assertThat(batch.data[batch.start()]).isEqualTo(1L);
+  }
+
   @Test(expected = ArrayIndexOutOfBoundsException.class)
   public void throws_adding_over_capacity() throws Exception {
     Batch<Object> batch = new Batch<>(1);
@@ -3,6 +3,7 @@ package com.twineworks.collections.champ;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -273,4 +274,29 @@ public class ChampMapTest {
 
   }
 
+  @Test
+  public void remove_all() {
+
+    ChampMap<String, Long> map = ChampMap.empty();
+
+    map = map.set("a",1L);
+    map = map.set("b",2L);
+    map = map.set("c",3L);
+    map = map.set("d",4L);
+
+    ChampMap<String, Long> removed = map.removeAll(Arrays.asList("a", "c", "x"));
+
+    assertThat(removed.size()).isEqualTo(2);
+    assertThat(removed.containsKey("a")).isFalse();
+    assertThat(removed.containsKey("c")).isFalse();
+    assertThat(removed.get("b")).isEqualTo(2L);
+    assertThat(removed.get("d")).isEqualTo(4L);
+    assertThat(removed).isEqualTo(ChampMap.<String, Long>empty().set("b", 2L).set("d", 4L));
+
+    // original unchanged
+    assertThat(map.size()).isEqualTo(4);
+    assertThat(map.get("a")).isEqualTo(1L);
+
+  }
+
 }
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccessorGroupTest {
+
+  private static final ShapeKey a = ShapeKey.get("a");
+  private static final ShapeKey b = ShapeKey.get("b");
+  private static final ShapeKey c = ShapeKey.get("c");
+
+  @Test
+  public void view_reads_keys_by_position() throws Exception {
+    AccessorGroup<String> g = ShapeMap.accessorGroup(c, a, b);
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+
+    RecordView<String> v = g.view(m);
+    assertThat(v.get(0)).isNull();
+    assertThat(v.get(1)).isEqualTo("1");
+    assertThat(v.get(2)).isEqualTo("2");
+    assertThat(v.has(0)).isFalse();
+    assertThat(v.has(1)).isTrue();
+  }
+
+  @Test
+  public void view_writes_keys_by_position() throws Exception {
+    AccessorGroup<String> g = ShapeMap.accessorGroup("a", "b", "c");
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    m.remove(b);
+
+    RecordView<String> v = g.view(m);
+    v.set(0, "x");
+    v.set(1, "y");
+    v.set(2, "z");
+    assertThat(m).isEqualTo(new ShapeMap<>(String.class, "a", "x", "b", "y", "c", "z"));
+
+    // view follows the shape change
+    assertThat(v.get(2)).isEqualTo("z");
+    v.set(2, "w");
+    assertThat(m.get(c)).isEqualTo("w");
+  }
+
+  @Test
+  public void view_removes_keys_by_position() throws Exception {
+    AccessorGroup<String> g = ShapeMap.accessorGroup(a, b);
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    RecordView<String> v = g.view(m);
+    assertThat(v.remove(0)).isEqualTo("1");
+    assertThat(v.has(0)).isFalse();
+    assertThat(v.get(0)).isNull();
+    assertThat(m).hasSize(1);
+  }
+
+  @Test
+  public void view_follows_changes_made_through_the_map() throws Exception {
+    AccessorGroup<String> g = ShapeMap.accessorGroup(a, c);
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1");
+    RecordView<String> v = g.view(m);
+    assertThat(v.get(1)).isNull();
+    m.put(c, "3");
+    assertThat(v.get(1)).isEqualTo("3");
+  }
+
+  @Test
+  public void view_is_rebound_to_maps_of_many_shapes() throws Exception {
+    AccessorGroup<Object> g = ShapeMap.accessorGroup(a, b);
+    RecordView<Object> v = g.view();
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 200; i++) {
+        ShapeMap<Object> m = new ShapeMap<>(Object.class, "group_" + i, i, "b", i, "a", -i);
+        v.bind(m);
+        assertThat(v.map()).isSameAs(m);
+        assertThat(v.get(0)).isEqualTo(-i);
+        assertThat(v.get(1)).isEqualTo(i);
+        v.set(0, i);
+        assertThat(m.get(a)).isEqualTo(i);
+      }
+    }
+  }
+
+  @Test
+  public void view_works_on_dictionary_maps() throws Exception {
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < Shapes.dictionarySize() + 10; i++) {
+      m.sets("group_dict_" + i, i);
+    }
+    assertThat(m.isDictionary()).isTrue();
+
+    AccessorGroup<Integer> g = ShapeMap.accessorGroup("group_dict_3", "group_dict_new");
+    RecordView<Integer> v = g.view(m);
+    assertThat(v.get(0)).isEqualTo(3);
+    assertThat(v.get(1)).isNull();
+    assertThat(v.has(0)).isTrue();
+    assertThat(v.has(1)).isFalse();
+
+    m.sets("group_dict_new", 1);
+    assertThat(v.has(1)).isTrue();
+    assertThat(v.get(1)).isEqualTo(1);
+    v.set(1, 2);
+    assertThat(m.gets("group_dict_new")).isEqualTo(2);
+  }
+
+  @Test
+  public void group_lists_keys() throws Exception {
+    AccessorGroup<Object> g = ShapeMap.accessorGroup(b, a);
+    assertThat(g.size()).isEqualTo(2);
+    assertThat(g.key(0)).isSameAs(b);
+    assertThat(g.keys()).containsExactly(b, a);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void group_rejects_duplicate_keys() throws Exception {
+    ShapeMap.accessorGroup(a, b, a);
+  }
+
+}
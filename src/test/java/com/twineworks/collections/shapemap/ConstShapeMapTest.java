@@ -24,6 +24,7 @@
 
 package com.twineworks.collections.shapemap;
 
+import com.twineworks.collections.batch.Batch;
 import org.junit.Test;
 
 import java.util.*;
@@ -402,4 +403,298 @@ public class ConstShapeMapTest {
 
   }
 
-}
\ No newline at end of file
+  @Test
+  public void accessor_works_across_many_shapes() throws Exception {
+
+    ConstShapeMap.Accessor<String> a_a = ConstShapeMap.accessor(a);
+
+    ArrayList<ConstShapeMap<String>> maps = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      ConstShapeMap<String> m = new ConstShapeMap<>(ShapeKey.getAll("x_" + i, "a", "y_" + i));
+      a_a.set(m, "v" + i);
+      maps.add(m);
+    }
+
+    for (int i = 0; i < maps.size(); i++) {
+      ConstShapeMap<String> m = maps.get(i);
+      assertThat(a_a.get(m)).isEqualTo("v" + i);
+      assertThat(m.get(a)).isEqualTo("v" + i);
+      assertThat(a_a.put(m, "w" + i)).isEqualTo("v" + i);
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void accessor_does_not_set_missing_key_on_learned_shape() throws Exception {
+
+    ConstShapeMap<String> m = new ConstShapeMap<>(b, c);
+    ConstShapeMap.Accessor<String> a_a = ConstShapeMap.accessor(a);
+    assertThat(a_a.get(m)).isNull();
+
+    a_a.set(m, "foo");
+
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void accessor_gets_and_sets_all_rows() throws Exception {
+
+    ConstShapeMap<String>[] rows = new ConstShapeMap[6];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = i % 3 == 0 ? new ConstShapeMap<>(a, b) : new ConstShapeMap<>(b, c, a);
+    }
+
+    ConstShapeMap.Accessor<String> a_a = ConstShapeMap.accessor(a);
+    a_a.setAll(rows, 1, 5, new String[]{"1", "2", "3", "4"});
+    assertThat(rows[0].get(a)).isNull();
+    assertThat(rows[3].get(a)).isEqualTo("3");
+
+    String[] out = new String[6];
+    a_a.getAll(rows, 0, 6, out);
+    assertThat(out).containsExactly(null, "1", "2", "3", "4", null);
+
+    Batch<ConstShapeMap<String>> batch = new Batch<>(6);
+    for (ConstShapeMap<String> row : rows) {
+      batch.add(row);
+    }
+    batch.remove();
+    a_a.setAll(batch, new String[]{"x1", "x2", "x3", "x4", "x5"});
+    Object[] batchOut = new Object[5];
+    a_a.getAll(batch, batchOut);
+    assertThat(batchOut).containsExactly("x1", "x2", "x3", "x4", "x5");
+
+    ConstShapeMap.Accessor<String> a_c = ConstShapeMap.accessor(c);
+    a_c.getAll(rows, 0, 6, out);
+    assertThat(out).containsExactly(null, null, null, null, null, null);
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  @SuppressWarnings("unchecked")
+  public void accessor_does_not_set_all_rows_missing_key() throws Exception {
+    ConstShapeMap<String>[] rows = new ConstShapeMap[]{new ConstShapeMap<>(a, b), new ConstShapeMap<>(b, c)};
+    ConstShapeMap.Accessor<String> a_a = ConstShapeMap.accessor(a);
+    a_a.setAll(rows, 0, 2, new String[]{"1", "2"});
+  }
+
+  @Test
+  public void accessor_updates_values_in_place() throws Exception {
+
+    ConstShapeMap<Object> m = new ConstShapeMap<>(a, b, c);
+    ConstShapeMap.Accessor<Object> a_a = ConstShapeMap.accessor(a);
+    ConstShapeMap.Accessor<Object> a_b = ConstShapeMap.accessor(b);
+    ConstShapeMap.Accessor<Object> a_c = ConstShapeMap.accessor(c);
+    ConstShapeMap.Accessor<Object> a_d = ConstShapeMap.accessor(d);
+
+    assertThat(a_a.getOrDefault(m, "x")).isEqualTo("x");
+    assertThat(a_d.getOrDefault(m, "x")).isEqualTo("x");
+    assertThat(a_a.putIfAbsent(m, "1")).isNull();
+    assertThat(a_a.putIfAbsent(m, "2")).isEqualTo("1");
+    assertThat(a_a.getOrDefault(m, "x")).isEqualTo("1");
+
+    assertThat(a_a.compute(m, v -> v + "!")).isEqualTo("1!");
+    assertThat(a_b.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("m");
+    assertThat(a_b.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("mm");
+
+    assertThat(a_c.addLong(m, 2)).isEqualTo(2L);
+    assertThat(a_c.addLong(m, 2)).isEqualTo(4L);
+    assertThat(m.get(c)).isEqualTo(4L);
+    assertThat(a_c.addDouble(m, 0.5)).isEqualTo(4.5);
+    assertThat(m.get(c)).isEqualTo(4.5);
+
+  }
+
+  @Test
+  public void default_accessor_operations_use_get_and_set() throws Exception {
+
+    ConstShapeMap<Object> m = new ConstShapeMap<>(a, b, c);
+    ConstShapeMap.Accessor<Object> a_a = new ConstShapeMap.Accessor<Object>() {
+      @Override
+      public Object get(ConstShapeMap<?> shapeMap) {
+        return shapeMap.get(a);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Object put(ConstShapeMap<? super Object> shapeMap, Object v) {
+        return shapeMap.put(a, v);
+      }
+
+      @Override
+      public void set(ConstShapeMap<? super Object> shapeMap, Object v) {
+        shapeMap.put(a, v);
+      }
+    };
+
+    assertThat(a_a.getOrDefault(m, "x")).isEqualTo("x");
+    assertThat(a_a.putIfAbsent(m, "1")).isNull();
+    assertThat(a_a.putIfAbsent(m, "2")).isEqualTo("1");
+    assertThat(a_a.compute(m, v -> v + "!")).isEqualTo("1!");
+    assertThat(a_a.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("1!m");
+    assertThat(a_a.compute(m, v -> null)).isNull();
+    assertThat(a_a.addLong(m, 2)).isEqualTo(2L);
+    assertThat(a_a.addDouble(m, 0.5)).isEqualTo(2.5);
+    assertThat(m.get(a)).isEqualTo(2.5);
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void accessor_does_not_add_to_missing_key() throws Exception {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(a, b);
+    ConstShapeMap.Accessor<Object> a_d = ConstShapeMap.accessor(d);
+    a_d.addLong(m, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejects_dictionary_shapes() throws Exception {
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < Shapes.dictionarySize() + 10; i++) {
+      m.sets("const_dict_" + i, i);
+    }
+    assertThat(m.isDictionary()).isTrue();
+    new ConstShapeMap<Integer>(m.shape);
+  }
+
+  private static Shape typedShape(){
+    Map<ShapeKey, SlotType> types = new HashMap<>();
+    types.put(a, SlotType.OBJECT);
+    types.put(b, SlotType.LONG);
+    types.put(c, SlotType.DOUBLE);
+    return ConstShapeMap.typedShape(types);
+  }
+
+  @Test
+  public void interns_typed_shapes() throws Exception {
+    assertThat(typedShape()).isSameAs(typedShape());
+    assertThat(typedShape()).isNotSameAs(Shapes.forKeys(Arrays.asList(a, b, c)));
+    assertThat(typedShape().keySet()).containsOnly(a, b, c);
+  }
+
+  @Test
+  public void typed_accessors_read_and_write_primitive_slots() throws Exception {
+
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    ConstShapeMap.LongAccessor a_b = ConstShapeMap.longAccessor(b);
+    ConstShapeMap.DoubleAccessor a_c = ConstShapeMap.doubleAccessor("c");
+
+    assertThat(a_b.get(m)).isEqualTo(0L);
+    assertThat(a_c.get(m)).isEqualTo(0.0);
+
+    a_b.set(m, 7L);
+    a_c.set(m, 1.5);
+    assertThat(a_b.add(m, 3L)).isEqualTo(10L);
+    assertThat(a_c.add(m, 1.0)).isEqualTo(2.5);
+
+    assertThat(a_b.get(m)).isEqualTo(10L);
+    assertThat(a_c.get(m)).isEqualTo(2.5);
+    assertThat(m.storage[m.shape.idxFor(b)]).isNull();
+
+  }
+
+  @Test
+  public void typed_slots_are_boxed_for_other_access() throws Exception {
+
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    m.put(a, "x");
+    m.put(b, 4);
+    m.put(c, 0.5f);
+
+    assertThat(m.get(a)).isEqualTo("x");
+    assertThat(m.get(b)).isEqualTo(4L);
+    assertThat(m.get(c)).isEqualTo(0.5);
+    assertThat(ConstShapeMap.longAccessor(b).get(m)).isEqualTo(4L);
+
+    ConstShapeMap.Accessor<Object> a_b = ConstShapeMap.accessor(b);
+    assertThat(a_b.addLong(m, 1)).isEqualTo(5L);
+    assertThat(a_b.get(m)).isEqualTo(5L);
+
+    Map<ShapeKey, Object> expected = new HashMap<>();
+    expected.put(a, "x");
+    expected.put(b, 5L);
+    expected.put(c, 0.5);
+    assertThat(m.equals(expected)).isTrue();
+    assertThat(m.hashCode()).isEqualTo(expected.hashCode());
+    assertThat(m.containsValue(5L)).isTrue();
+
+    assertThat(m.remove(b)).isEqualTo(5L);
+    assertThat(m.get(b)).isEqualTo(0L);
+    m.set(c, null);
+    assertThat(m.get(c)).isEqualTo(0.0);
+
+  }
+
+  @Test
+  public void copies_and_clears_typed_slots() throws Exception {
+
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    ConstShapeMap.LongAccessor a_b = ConstShapeMap.longAccessor(b);
+    a_b.set(m, 1L);
+    m.put(a, "x");
+
+    ConstShapeMap<Object> copy = new ConstShapeMap<>(m);
+    a_b.set(copy, 2L);
+    assertThat(a_b.get(m)).isEqualTo(1L);
+    assertThat(a_b.get(copy)).isEqualTo(2L);
+    assertThat(copy.get(a)).isEqualTo("x");
+
+    m.clear();
+    assertThat(a_b.get(m)).isEqualTo(0L);
+    assertThat(m.get(a)).isNull();
+
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void typed_accessor_gets_all_rows() throws Exception {
+
+    Map<ShapeKey, SlotType> other = new HashMap<>();
+    other.put(b, SlotType.LONG);
+    other.put(d, SlotType.LONG);
+    Shape otherShape = ConstShapeMap.typedShape(other);
+
+    ConstShapeMap.LongAccessor a_b = ConstShapeMap.longAccessor(b);
+    ConstShapeMap<Object>[] rows = new ConstShapeMap[4];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new ConstShapeMap<>(i < 2 ? typedShape() : otherShape);
+      a_b.set(rows[i], i);
+    }
+
+    long[] out = new long[3];
+    a_b.getAll(rows, 1, 4, out);
+    assertThat(out).containsExactly(1L, 2L, 3L);
+
+  }
+
+  @Test
+  public void projects_typed_slots() throws Exception {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    ConstShapeMap.longAccessor(b).set(m, 3L);
+    ConstShapeMap<Object> r = ShapeProjection.select(b, a).apply(m);
+    assertThat(r.get(b)).isEqualTo(3L);
+    assertThat(r.get(a)).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void long_accessor_does_not_access_untyped_slot() throws Exception {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(a, b);
+    ConstShapeMap.longAccessor(b).get(m);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void double_accessor_does_not_access_long_slot() throws Exception {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    ConstShapeMap.doubleAccessor(b).set(m, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void long_accessor_does_not_access_missing_key() throws Exception {
+    ConstShapeMap<Object> m = new ConstShapeMap<>(typedShape());
+    ConstShapeMap.longAccessor(d).get(m);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void typed_shapes_do_not_transition() throws Exception {
+    typedShape().extendBy(d);
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShapeIndexCacheTest {
+
+  private static ArrayList<Shape> shapes(int n){
+    ArrayList<Shape> shapes = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      shapes.add(new ShapeN(ShapeKey.getAll("cache_" + i)));
+    }
+    return shapes;
+  }
+
+  @Test
+  public void misses_unknown_shapes() throws Exception {
+    ShapeIndexCache cache = new ShapeIndexCache();
+    assertThat(cache.get(shapes(1).get(0))).isEqualTo(-1);
+  }
+
+  @Test
+  public void remembers_indexes_including_zero() throws Exception {
+
+    ShapeIndexCache cache = new ShapeIndexCache();
+    ArrayList<Shape> shapes = shapes(300);
+    for (int i = 0; i < shapes.size(); i++) {
+      cache.put(shapes.get(i), i % 5);
+    }
+
+    int hits = 0;
+    for (int i = 0; i < shapes.size(); i++) {
+      int idx = cache.get(shapes.get(i));
+      if (idx >= 0){
+        assertThat(idx).isEqualTo(i % 5);
+        hits++;
+      }
+    }
+
+    // the table grows well beyond this, only unlucky probe sequences evict
+    assertThat(hits).isGreaterThan(290);
+    assertThat(cache.size()).isEqualTo(hits);
+
+  }
+
+  @Test
+  public void replaces_index_of_cached_shape() throws Exception {
+    ShapeIndexCache cache = new ShapeIndexCache();
+    Shape s = shapes(1).get(0);
+    cache.put(s, 1);
+    cache.put(s, 2);
+    assertThat(cache.get(s)).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void stays_bounded_and_keeps_recent_shapes() throws Exception {
+
+    ShapeIndexCache cache = new ShapeIndexCache(ShapeIndexCache.INITIAL_CAPACITY);
+    ArrayList<Shape> shapes = shapes(1000);
+    for (int i = 0; i < shapes.size(); i++) {
+      cache.put(shapes.get(i), 1);
+      // the latest shape is always found
+      assertThat(cache.get(shapes.get(i))).isEqualTo(1);
+    }
+
+    assertThat(cache.size()).isLessThanOrEqualTo(ShapeIndexCache.INITIAL_CAPACITY);
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejects_capacities_that_are_not_powers_of_two() throws Exception {
+    new ShapeIndexCache(100);
+  }
+
+}
@@ -26,6 +26,10 @@ package com.twineworks.collections.shapemap;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -71,4 +75,168 @@ public class ShapeKeyTest {
     );
   }
 
+
+  @Test
+  public void get_finds_interned_key_for_char_sequence() throws Exception {
+    ShapeKey foo = ShapeKey.get("foo");
+    assertThat(ShapeKey.get(new StringBuilder("foo"))).isSameAs(foo);
+    assertThat(ShapeKey.get((CharSequence) "foo")).isSameAs(foo);
+  }
+
+  @Test
+  public void get_interns_new_key_for_char_sequence() throws Exception {
+    ShapeKey k = ShapeKey.get(new StringBuilder("new_chars_key"));
+    assertThat(k.sym).isEqualTo("new_chars_key");
+    assertThat(ShapeKey.get("new_chars_key")).isSameAs(k);
+  }
+
+  @Test
+  public void get_finds_interned_key_for_utf8_bytes() throws Exception {
+    String[] syms = {"", "foo", "grüße", "€uro", "\uD83D\uDE00smile", "日本語"};
+    for (String sym : syms) {
+      ShapeKey k = ShapeKey.get(sym);
+      byte[] utf8 = sym.getBytes(StandardCharsets.UTF_8);
+      byte[] padded = new byte[utf8.length + 4];
+      System.arraycopy(utf8, 0, padded, 2, utf8.length);
+
+      assertThat(ShapeKey.get(utf8, 0, utf8.length)).isSameAs(k);
+      assertThat(ShapeKey.get(padded, 2, utf8.length)).isSameAs(k);
+    }
+  }
+
+  @Test
+  public void get_interns_new_key_for_utf8_bytes() throws Exception {
+    byte[] utf8 = "[new_utf8_key_ä]".getBytes(StandardCharsets.UTF_8);
+    ShapeKey k = ShapeKey.get(utf8, 1, utf8.length - 2);
+    assertThat(k.sym).isEqualTo("new_utf8_key_ä");
+    assertThat(ShapeKey.get("new_utf8_key_ä")).isSameAs(k);
+  }
+
+  @Test
+  public void get_does_not_confuse_keys_with_equal_hashes() throws Exception {
+    // "Aa" and "BB" have the same String hash
+    ShapeKey aa = ShapeKey.get("Aa");
+    ShapeKey bb = ShapeKey.get("BB");
+    assertThat(ShapeKey.get("BB".getBytes(StandardCharsets.UTF_8), 0, 2)).isSameAs(bb);
+    assertThat(ShapeKey.get(new StringBuilder("Aa"))).isSameAs(aa);
+  }
+
+  @Test
+  public void get_decodes_malformed_utf8_like_string() throws Exception {
+    byte[] malformed = {'a', (byte) 0xC3, 'b', (byte) 0xFF};
+    ShapeKey k = ShapeKey.get(malformed, 0, malformed.length);
+    assertThat(k.sym).isEqualTo(new String(malformed, StandardCharsets.UTF_8));
+    assertThat(ShapeKey.get(malformed, 0, malformed.length)).isSameAs(k);
+  }
+
+  @Test
+  public void get_finds_interned_key_in_byte_buffers() throws Exception {
+    ShapeKey k = ShapeKey.get("grüße");
+    byte[] utf8 = "xgrüße".getBytes(StandardCharsets.UTF_8);
+
+    ByteBuffer heap = ByteBuffer.wrap(utf8);
+    ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+    direct.put(utf8);
+    direct.flip();
+
+    assertThat(ShapeKey.get(heap, 1, utf8.length - 1)).isSameAs(k);
+    assertThat(ShapeKey.get(direct, 1, utf8.length - 1)).isSameAs(k);
+    assertThat(ShapeKey.get(heap.asReadOnlyBuffer(), 1, utf8.length - 1)).isSameAs(k);
+    assertThat(direct.position()).isEqualTo(0);
+  }
+
+  @Test
+  public void get_interns_new_key_for_direct_byte_buffer() throws Exception {
+    byte[] utf8 = "new_buffer_key".getBytes(StandardCharsets.UTF_8);
+    ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+    direct.put(utf8);
+    ShapeKey k = ShapeKey.get(direct, 0, utf8.length);
+    assertThat(k.sym).isEqualTo("new_buffer_key");
+    assertThat(ShapeKey.get("new_buffer_key")).isSameAs(k);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void get_rejects_out_of_bounds_bytes() throws Exception {
+    ShapeKey.get(new byte[4], 2, 3);
+  }
+
+  // collects garbage until the interned key count drops to at most max
+  private static boolean awaitInternedCount(int max) throws InterruptedException {
+    for (int i = 0; i < 50; i++) {
+      System.gc();
+      ShapeKey.purgeCache();
+      if (ShapeKey.internedCount() <= max) return true;
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+  @Test
+  public void collected_keys_are_purged() throws Exception {
+
+    int before = ShapeKey.internedCount();
+    ArrayList<ShapeKey> keys = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      keys.add(ShapeKey.get("purged_key_" + i));
+    }
+
+    // held keys stay interned
+    int held = ShapeKey.internedCount();
+    assertThat(held).isGreaterThan(before);
+    assertThat(held).isGreaterThanOrEqualTo(keys.size());
+
+    // interning purges other collected keys too, so the count
+    // can only be expected to drop by at least the dropped keys
+    keys = null;
+    assertThat(awaitInternedCount(held - 10000)).isTrue();
+
+    // purged keys are interned afresh
+    ShapeKey k = ShapeKey.get("purged_key_0");
+    assertThat(ShapeKey.get("purged_key_0")).isSameAs(k);
+
+  }
+
+  @Test
+  public void live_keys_have_distinct_dense_ids() throws Exception {
+
+    ArrayList<ShapeKey> keys = new ArrayList<>();
+    HashSet<Integer> ids = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      ShapeKey k = ShapeKey.get("id_key_" + i);
+      keys.add(k);
+      ids.add(k.id);
+    }
+
+    assertThat(ids).hasSize(1000);
+    for (ShapeKey k : keys) {
+      assertThat(k.id).isBetween(0, ShapeKey.idLimit() - 1);
+    }
+
+  }
+
+  @Test
+  public void ids_of_collected_keys_are_reused() throws Exception {
+
+    int before = ShapeKey.internedCount();
+    for (int i = 0; i < 1000; i++) {
+      ShapeKey.get("reused_id_key_" + i);
+    }
+
+    for (int i = 0; i < 50 && ShapeKey.internedCount() > before; i++) {
+      System.gc();
+      Thread.sleep(20);
+      ShapeKey.purgeCache();
+    }
+    assertThat(ShapeKey.internedCount()).isLessThanOrEqualTo(before);
+
+    int limit = ShapeKey.idLimit();
+    ArrayList<ShapeKey> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(ShapeKey.get("fresh_id_key_" + i));
+    }
+    assertThat(ShapeKey.idLimit()).isEqualTo(limit);
+    assertThat(keys).hasSize(1000);
+
+  }
+
 }
\ No newline at end of file
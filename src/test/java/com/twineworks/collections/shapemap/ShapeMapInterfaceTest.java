@@ -675,6 +675,146 @@ public class ShapeMapInterfaceTest {
     assertInvariants(map);
   }
 
+  @Test
+  public void testGetOrDefault() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey key = map.keySet().iterator().next();
+    assertEquals(map.get(key), map.getOrDefault(key, "default"));
+    assertEquals("default", map.getOrDefault(getKeyNotInPopulatedMap(), "default"));
+
+    map.put(key, null);
+    assertNull(map.getOrDefault(key, "default"));
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testPutIfAbsent() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey existing = map.keySet().iterator().next();
+    final ShapeKey missing = getKeyNotInPopulatedMap();
+    final String existingValue = map.get(existing);
+
+    int initialSize = map.size();
+    assertEquals(existingValue, map.putIfAbsent(existing, "other"));
+    assertEquals(existingValue, map.get(existing));
+    assertNull(map.putIfAbsent(missing, "new"));
+    assertEquals("new", map.get(missing));
+    assertEquals(initialSize + 1, map.size());
+
+    map.put(existing, null);
+    assertNull(map.putIfAbsent(existing, "other"));
+    assertEquals("other", map.get(existing));
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testComputeIfAbsent() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey existing = map.keySet().iterator().next();
+    final ShapeKey missing = getKeyNotInPopulatedMap();
+    final String existingValue = map.get(existing);
+
+    int initialSize = map.size();
+    assertEquals(existingValue, map.computeIfAbsent(existing, k -> "other"));
+    assertNull(map.computeIfAbsent(missing, k -> null));
+    assertFalse(map.containsKey(missing));
+    assertEquals("missing key", map.computeIfAbsent(missing, k -> k.sym));
+    assertEquals("missing key", map.get(missing));
+    assertEquals(initialSize + 1, map.size());
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testComputeIfPresent() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey existing = map.keySet().iterator().next();
+    final ShapeKey missing = getKeyNotInPopulatedMap();
+
+    final String existingValue = map.get(existing);
+
+    int initialSize = map.size();
+    assertNull(map.computeIfPresent(missing, (k, v) -> "other"));
+    assertFalse(map.containsKey(missing));
+    assertEquals(existingValue + "!", map.computeIfPresent(existing, (k, v) -> v + "!"));
+    assertEquals(existingValue + "!", map.get(existing));
+    assertNull(map.computeIfPresent(existing, (k, v) -> null));
+    assertFalse(map.containsKey(existing));
+    assertEquals(initialSize - 1, map.size());
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testComputeMethodsRejectNullKey() {
+    final ShapeMap<String> map = makePopulatedMap();
+
+    try {
+      map.computeIfPresent(null, (k, v) -> v);
+      fail("Expected NullPointerException.");
+    } catch (NullPointerException e) {
+      // Expected.
+    }
+
+    try {
+      map.computeIfAbsent(null, k -> "v");
+      fail("Expected NullPointerException.");
+    } catch (NullPointerException e) {
+      // Expected.
+    }
+
+    try {
+      map.compute(null, (k, v) -> v);
+      fail("Expected NullPointerException.");
+    } catch (NullPointerException e) {
+      // Expected.
+    }
+
+    try {
+      map.merge(null, "v", (x, y) -> y);
+      fail("Expected NullPointerException.");
+    } catch (NullPointerException e) {
+      // Expected.
+    }
+
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testCompute() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey existing = map.keySet().iterator().next();
+    final ShapeKey missing = getKeyNotInPopulatedMap();
+
+    final String existingValue = map.get(existing);
+
+    int initialSize = map.size();
+    assertEquals("null!", map.compute(missing, (k, v) -> v + "!"));
+    assertEquals(existingValue + "!", map.compute(existing, (k, v) -> v + "!"));
+    assertEquals(initialSize + 1, map.size());
+    assertNull(map.compute(existing, (k, v) -> null));
+    assertFalse(map.containsKey(existing));
+    assertNull(map.compute(existing, (k, v) -> null));
+    assertEquals(initialSize, map.size());
+    assertInvariants(map);
+  }
+
+  @Test
+  public void testMerge() {
+    final ShapeMap<String> map = makePopulatedMap();
+    final ShapeKey existing = map.keySet().iterator().next();
+    final ShapeKey missing = getKeyNotInPopulatedMap();
+
+    final String existingValue = map.get(existing);
+
+    int initialSize = map.size();
+    assertEquals("new", map.merge(missing, "new", (a, b) -> a + b));
+    assertEquals(existingValue + "x", map.merge(existing, "x", (a, b) -> a + b));
+    assertEquals(existingValue + "x", map.get(existing));
+    assertNull(map.merge(existing, "x", (a, b) -> null));
+    assertFalse(map.containsKey(existing));
+    assertEquals(initialSize, map.size());
+    assertInvariants(map);
+  }
+
   @Test
   public void testRemove() {
     final ShapeMap<String> map = makePopulatedMap();
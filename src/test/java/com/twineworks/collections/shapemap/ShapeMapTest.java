@@ -24,9 +24,12 @@
 
 package com.twineworks.collections.shapemap;
 
+import com.twineworks.collections.batch.Batch;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -547,7 +550,7 @@ public class ShapeMapTest {
   }
 
   @Test
-  public void maintains_keys_in_insertion_order() throws Exception {
+  public void maintains_keys_in_slot_order() throws Exception {
 
     ShapeMap<String> m = new ShapeMap<>(String.class,
       "a", "",
@@ -576,18 +579,819 @@ public class ShapeMapTest {
     assertThat(keys.get(3)).isEqualTo(ShapeKey.get("e"));
     assertThat(keys.get(4)).isEqualTo(ShapeKey.get("f"));
 
-    // add a key and re-test
+    // re-add the key, it takes its slot again
     m.sets("c", "");
     keys = new ArrayList<>(m.keySet());
 
     assertThat(keys.get(0)).isEqualTo(ShapeKey.get("a"));
     assertThat(keys.get(1)).isEqualTo(ShapeKey.get("b"));
-    assertThat(keys.get(2)).isEqualTo(ShapeKey.get("d"));
-    assertThat(keys.get(3)).isEqualTo(ShapeKey.get("e"));
-    assertThat(keys.get(4)).isEqualTo(ShapeKey.get("f"));
-    assertThat(keys.get(5)).isEqualTo(ShapeKey.get("c"));
+    assertThat(keys.get(2)).isEqualTo(ShapeKey.get("c"));
+    assertThat(keys.get(3)).isEqualTo(ShapeKey.get("d"));
+    assertThat(keys.get(4)).isEqualTo(ShapeKey.get("e"));
+    assertThat(keys.get(5)).isEqualTo(ShapeKey.get("f"));
+
+    // a new key goes last
+    m.sets("g", "");
+    keys = new ArrayList<>(m.keySet());
+    assertThat(keys).hasSize(7);
+    assertThat(keys.get(6)).isEqualTo(ShapeKey.get("g"));
+
+  }
+
+
+  @Test
+  public void tracks_presence_beyond_64_keys() throws Exception {
+
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < 200; i++) {
+      m.sets("p_" + i, i);
+    }
+    assertThat(m.size()).isEqualTo(200);
+
+    for (int i = 0; i < 200; i += 3) {
+      m.removes("p_" + i);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      if (i % 3 == 0){
+        assertThat(m.containsKey(ShapeKey.get("p_" + i))).isFalse();
+        assertThat(m.gets("p_" + i)).isNull();
+      }
+      else {
+        assertThat(m.gets("p_" + i)).isEqualTo(i);
+      }
+    }
+
+    ShapeMap<Integer> copy = new ShapeMap<>(m);
+    m.clear();
+    assertThat(m.isEmpty()).isTrue();
+    assertThat(m.gets("p_199")).isNull();
+    assertThat(copy.gets("p_199")).isEqualTo(199);
+    assertThat(copy.gets("p_198")).isNull();
+
+  }
+
+  @Test
+  public void accessor_set_after_remove_adds_mapping() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>();
+    ShapeMap.Accessor<String> a_a = ShapeMap.accessor(a);
+    a_a.set(m, "foo");
+    m.remove(a);
+    assertThat(m.containsKey(a)).isFalse();
+
+    a_a.set(m, "bar");
+    assertThat(m.containsKey(a)).isTrue();
+    assertThat(m.get(a)).isEqualTo("bar");
+    assertThat(m.keySet()).containsExactly(a);
+
+  }
+
+  @Test
+  public void accessor_put_on_shape_learned_by_other_map_adds_mapping() throws Exception {
+
+    ShapeMap.Accessor<String> a_a = ShapeMap.accessor(a);
+
+    ShapeMap<String> m1 = new ShapeMap<>();
+    a_a.put(m1, "foo");
+
+    ShapeMap<String> m2 = new ShapeMap<>();
+    m2.extendShape(new HashSet<>(Collections.singletonList(a)));
+    assertThat(m2.shape).isSameAs(m1.shape);
+
+    assertThat(a_a.put(m2, "bar")).isNull();
+    assertThat(m2.get(a)).isEqualTo("bar");
+    assertThat(m2.size()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void accessor_set_after_missed_get_adds_mapping() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>();
+    ShapeMap.Accessor<String> a_a = ShapeMap.accessor(a);
+    assertThat(a_a.get(m)).isNull();
+
+    a_a.set(m, "foo");
+    assertThat(m.get(a)).isEqualTo("foo");
+    assertThat(a_a.get(m)).isEqualTo("foo");
+    assertThat(m.size()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void iterates_beyond_64_keys_in_slot_order() throws Exception {
+
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < 150; i++) {
+      m.sets("q_" + i, i);
+    }
+
+    // remove every other mapping through the iterator
+    Iterator<Integer> it = m.values().iterator();
+    while (it.hasNext()){
+      if (it.next() % 2 == 0) it.remove();
+    }
+    assertThat(m.size()).isEqualTo(75);
+
+    int expected = 1;
+    for (Map.Entry<ShapeKey, Integer> e : m.entrySet()) {
+      assertThat(e.getKey()).isSameAs(ShapeKey.get("q_" + expected));
+      assertThat(e.getValue()).isEqualTo(expected);
+      expected += 2;
+    }
+    assertThat(expected).isEqualTo(151);
+    assertThat(m.containsValue(149)).isTrue();
+    assertThat(m.containsValue(148)).isFalse();
+
+  }
+
+  @Test
+  public void counts_duplicate_keys_once() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(Arrays.asList(a, b, a));
+    assertThat(m.size()).isEqualTo(2);
+
+    m.addKeys(Arrays.asList(b, c, c));
+    assertThat(m.size()).isEqualTo(3);
+    assertThat(m.keySet()).containsExactly(a, b, c);
+
+    m.putAll(new ShapeMap<>(String.class, "c", "x", "d", "y"));
+    assertThat(m.size()).isEqualTo(4);
+    assertThat(m.get(d)).isEqualTo("y");
+
+  }
+
+  @Test
+  public void put_all_copies_from_map_of_same_shape() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2", "c", "3");
+    m.remove(b);
+    ShapeMap<String> other = new ShapeMap<>(m.shape.keySet());
+    other.clear();
+    other.put(a, "x");
+    other.put(b, "y");
+
+    m.putAll(other);
+    assertThat(m.shape).isSameAs(other.shape);
+    assertThat(m).hasSize(3);
+    assertThat(m.get(a)).isEqualTo("x");
+    assertThat(m.get(b)).isEqualTo("y");
+    assertThat(m.get(c)).isEqualTo("3");
+
+  }
+
+  @Test
+  public void put_all_copies_from_map_of_ancestor_shape() throws Exception {
+
+    ShapeMap<String> base = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    ShapeMap<String> m = new ShapeMap<>(base);
+    m.put(c, "3");
+    m.put(d, "4");
+
+    base.put(a, "x");
+    m.putAll(base);
+
+    assertThat(m).hasSize(4);
+    assertThat(m.get(a)).isEqualTo("x");
+    assertThat(m.get(b)).isEqualTo("2");
+    assertThat(m.get(d)).isEqualTo("4");
+
+  }
+
+  @Test
+  public void put_all_takes_over_extended_shape() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    ShapeMap<String> enriched = new ShapeMap<>(m);
+    enriched.remove(a);
+    enriched.put(c, "3");
+
+    m.putAll(enriched);
+    assertThat(m.shape).isSameAs(enriched.shape);
+    assertThat(m).hasSize(3);
+    assertThat(m.get(a)).isEqualTo("1");
+    assertThat(m.get(b)).isEqualTo("2");
+    assertThat(m.get(c)).isEqualTo("3");
+    assertThat(m.keySet()).containsExactly(a, b, c);
+
+  }
+
+  @Test
+  public void put_all_copies_from_map_of_unrelated_shape() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    ShapeMap<String> other = new ShapeMap<>();
+    other.put(c, "3");
+    other.put(a, "x");
+
+    m.putAll(other);
+    assertThat(m).hasSize(3);
+    assertThat(m.get(a)).isEqualTo("x");
+    assertThat(m.get(b)).isEqualTo("2");
+    assertThat(m.get(c)).isEqualTo("3");
+
+  }
+
+  @Test
+  public void put_all_copies_runs_of_many_keys() throws Exception {
+
+    ShapeMap<Integer> base = new ShapeMap<>();
+    for (int i = 0; i < 200; i++) {
+      base.sets("run_" + i, i);
+    }
+    ShapeMap<Integer> m = new ShapeMap<>(base);
+    m.clear();
+    for (int i = 0; i < 200; i += 3) {
+      m.sets("run_" + i, -i);
+    }
+    for (int i = 0; i < 200; i += 5) {
+      base.removes("run_" + i);
+    }
+
+    m.putAll(base);
+    for (int i = 0; i < 200; i++) {
+      Integer expected = null;
+      if (i % 5 != 0) expected = i;
+      else if (i % 3 == 0) expected = -i;
+      assertThat(m.gets("run_" + i)).isEqualTo(expected);
+    }
+    assertThat(m).hasSize(200 - 40 + 14);
+
+  }
+
+  @Test
+  public void put_all_from_map_of_same_shape_as_plain_map() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    Map<ShapeKey, String> other = new ShapeMap<>(m);
+    other.put(a, "x");
+
+    m.putAll(other);
+    assertThat(m).isEqualTo(other);
+
+  }
+
+  @Test
+  public void copy_from_replaces_all_mappings() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2", "c", "3");
+    Object[] storage = m.storage;
+    ShapeMap<String> other = new ShapeMap<>(String.class, "d", "4");
+
+    m.copyFrom(other);
+    assertThat(m).isEqualTo(other);
+    assertThat(m.shape).isSameAs(other.shape);
+    assertThat(m.storage).isSameAs(storage);
+
+    other.put(a, "x");
+    assertThat(m.containsKey(a)).isFalse();
 
   }
 
+  @Test
+  public void copy_from_grows_storage() throws Exception {
+
+    ShapeMap<Integer> big = new ShapeMap<>();
+    for (int i = 0; i < 100; i++) {
+      big.sets("copy_" + i, i);
+    }
+    ShapeMap<Integer> m = new ShapeMap<>(Integer.class, "a", 1);
+
+    m.copyFrom(big);
+    assertThat(m).isEqualTo(big);
+    m.removes("copy_99");
+    assertThat(big.gets("copy_99")).isEqualTo(99);
+
+    // and back to a smaller map, reusing storage
+    m.copyFrom(new ShapeMap<>(Integer.class, "a", 1));
+    assertThat(m).hasSize(1);
+    assertThat(m.gets("copy_70")).isNull();
+    assertThat(m.keySet()).containsExactly(a);
+
+  }
+
+  @Test
+  public void for_each_visits_mappings_in_slot_order() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class,
+      "a", "1",
+      "b", "2",
+      "c", null,
+      "d", "4");
+    m.remove(b);
+
+    ArrayList<ShapeKey> keys = new ArrayList<>();
+    ArrayList<String> values = new ArrayList<>();
+    m.forEach((k, v) -> {
+      keys.add(k);
+      values.add(v);
+    });
+
+    assertThat(keys).containsExactly(a, c, d);
+    assertThat(values).containsExactly("1", null, "4");
+
+    ArrayList<String> viaValues = new ArrayList<>();
+    m.values().forEach(viaValues::add);
+    assertThat(viaValues).containsExactly("1", null, "4");
+
+  }
+
+  @Test
+  public void replace_all_replaces_present_mappings() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class,
+      "a", "1",
+      "b", "2",
+      "c", "3");
+    m.remove(b);
+
+    m.replaceAll((k, v) -> k + "=" + v);
+
+    assertThat(m.size()).isEqualTo(2);
+    assertThat(m.get(a)).isEqualTo("a=1");
+    assertThat(m.containsKey(b)).isFalse();
+    assertThat(m.get(c)).isEqualTo("c=3");
+
+  }
+
+  @Test
+  public void hashes_and_compares_like_other_maps() throws Exception {
+
+    ShapeMap<String> m = new ShapeMap<>(String.class,
+      "a", "1",
+      "b", null,
+      "c", "3");
+
+    HashMap<ShapeKey, String> h = new HashMap<>();
+    h.put(a, "1");
+    h.put(b, null);
+    h.put(c, "3");
+
+    assertThat(m.hashCode()).isEqualTo(h.hashCode());
+    assertThat(m).isEqualTo(h);
+    assertThat(h).isEqualTo(m);
+
+    h.put(b, "2");
+    assertThat(m).isNotEqualTo(h);
+
+  }
+
+  @Test
+  public void accessor_works_across_many_shapes() throws Exception {
+
+    ShapeMap.Accessor<String> a_a = ShapeMap.accessor(a);
+
+    // a different shape per map, with a at a different index in most of them
+    ArrayList<ShapeMap<String>> maps = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      ShapeMap<String> m = new ShapeMap<>();
+      for (int j = 0; j < i % 7; j++) {
+        m.sets("m_" + i + "_" + j, "");
+      }
+      m.sets("n_" + i, "");
+      a_a.set(m, "v" + i);
+      maps.add(m);
+    }
+
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < maps.size(); i++) {
+        ShapeMap<String> m = maps.get(i);
+        assertThat(a_a.get(m)).isEqualTo("v" + i);
+        assertThat(m.get(a)).isEqualTo("v" + i);
+        assertThat(a_a.put(m, "w" + i)).isEqualTo("v" + i);
+        a_a.set(m, "v" + i);
+      }
+    }
+
+    // maps lacking the key
+    for (int i = 0; i < 10; i++) {
+      ShapeMap<String> m = new ShapeMap<>();
+      m.sets("o_" + i, "");
+      assertThat(a_a.get(m)).isNull();
+    }
+
+  }
+
+  @Test
+  public void accessor_can_be_shared_between_threads() throws Exception {
+
+    final ShapeMap.Accessor<Integer> acc = ShapeMap.accessor("shared");
+    final int threads = 4;
+    final AtomicInteger failures = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    ArrayList<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      Thread w = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < 2000; i++) {
+            // shapes differ in where the shared key ends up
+            ShapeMap<Integer> m = new ShapeMap<>();
+            for (int j = 0; j < i % 13; j++) {
+              m.sets("t_" + j, j);
+            }
+            acc.set(m, thread * 10000 + i);
+            if (acc.get(m) != thread * 10000 + i || !m.gets("shared").equals(thread * 10000 + i)){
+              failures.incrementAndGet();
+            }
+          }
+        } catch (InterruptedException e) {
+          failures.incrementAndGet();
+        }
+      });
+      w.start();
+      workers.add(w);
+    }
+
+    start.countDown();
+    for (Thread w : workers) {
+      w.join();
+    }
+
+    assertThat(failures.get()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void compact_moves_to_shape_of_present_keys() throws Exception {
+
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < 100; i++) {
+      m.sets("compact_" + i, i);
+    }
+    for (int i = 0; i < 100; i++) {
+      if (i % 10 != 0) m.removes("compact_" + i);
+    }
+    ShapeMap.Accessor<Integer> acc = ShapeMap.accessor("compact_50");
+    assertThat(acc.get(m)).isEqualTo(50);
+
+    m.compact();
+    assertThat(m.shape.size()).isEqualTo(10);
+    assertThat(m.storage.length).isLessThan(100);
+    assertThat(m).hasSize(10);
+
+    int expected = 0;
+    for (Map.Entry<ShapeKey, Integer> e : m.entrySet()) {
+      assertThat(e.getKey()).isSameAs(ShapeKey.get("compact_" + expected));
+      assertThat(e.getValue()).isEqualTo(expected);
+      expected += 10;
+    }
+    assertThat(acc.get(m)).isEqualTo(50);
+
+    // compacted maps keep working as usual
+    m.sets("compact_1", 1);
+    m.removes("compact_0");
+    assertThat(m).hasSize(10);
+    assertThat(m.gets("compact_1")).isEqualTo(1);
+
+  }
+
+  @Test
+  public void compacted_maps_of_same_keys_share_shape() throws Exception {
+
+    ShapeMap<String> m1 = new ShapeMap<>(String.class, "a", "1", "b", "2", "c", "3");
+    ShapeMap<String> m2 = new ShapeMap<>(String.class, "d", "4", "a", "1", "b", "2");
+    m1.remove(c);
+    m2.remove(d);
+
+    m1.compact();
+    m2.compact();
+    assertThat(m1.shape).isSameAs(m2.shape);
+    assertThat(m1).isEqualTo(m2);
+
+  }
+
+  @Test
+  public void compact_keeps_tight_shape() throws Exception {
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    Shape s = m.shape;
+    Object[] storage = m.storage;
+    m.compact();
+    assertThat(m.shape).isSameAs(s);
+    assertThat(m.storage).isSameAs(storage);
+  }
+
+  @Test
+  public void compact_leaves_dictionary_mode() throws Exception {
+
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < Shapes.dictionarySize() + 10; i++) {
+      m.sets("compact_dict_" + i, i);
+    }
+    assertThat(m.isDictionary()).isTrue();
+    for (int i = 2; i < Shapes.dictionarySize() + 10; i++) {
+      m.removes("compact_dict_" + i);
+    }
+
+    m.compact();
+    assertThat(m.isDictionary()).isFalse();
+    assertThat(m).isEqualTo(new ShapeMap<>(Integer.class, "compact_dict_0", 0, "compact_dict_1", 1));
+
+  }
+
+  @Test
+  public void compacts_automatically_on_remove() throws Exception {
+
+    int percent = Shapes.compactPercent();
+    try {
+      Shapes.setCompactPercent(25);
+
+      // a session map cycling through keys
+      ShapeMap<Integer> m = new ShapeMap<>();
+      for (int i = 0; i < 1000; i++) {
+        m.sets("session_" + i, i);
+        if (i >= 4) m.removes("session_" + (i - 4));
+        assertThat(m.shape.size()).isLessThan(Shapes.COMPACT_MIN_KEYS * 4 + 5);
+      }
+      assertThat(m).hasSize(4);
+      for (int i = 996; i < 1000; i++) {
+        assertThat(m.gets("session_" + i)).isEqualTo(i);
+      }
+
+      Shapes.setCompactPercent(0);
+      for (int i = 1000; i < 1100; i++) {
+        m.sets("session_" + i, i);
+        m.removes("session_" + (i - 4));
+      }
+      assertThat(m.shape.size()).isGreaterThanOrEqualTo(100);
+    }
+    finally {
+      Shapes.setCompactPercent(percent);
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejects_compact_percent_out_of_range() throws Exception {
+    Shapes.setCompactPercent(101);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void accessor_gets_all_rows() throws Exception {
+
+    ShapeMap<Object>[] rows = new ShapeMap[10];
+    for (int i = 0; i < rows.length; i++) {
+      // runs of rows of the same shape, and rows without the key
+      if (i < 4) rows[i] = new ShapeMap<>(Object.class, "a", i, "b", 0);
+      else if (i < 7) rows[i] = new ShapeMap<>(Object.class, "c", 0, "a", i);
+      else rows[i] = new ShapeMap<>(Object.class, "b", i);
+    }
+    rows[2].remove(a);
+
+    ShapeMap.Accessor<Object> acc = ShapeMap.accessor(a);
+    Object[] out = new Object[8];
+    acc.getAll(rows, 1, 9, out);
+    assertThat(out).containsExactly(1, null, 3, 4, 5, 6, null, null);
+
+    Batch<ShapeMap<Object>> batch = new Batch<>(10);
+    for (ShapeMap<Object> row : rows) {
+      batch.add(row);
+    }
+    batch.remove();
+    batch.remove();
+    out = new Object[8];
+    acc.getAll(batch, out);
+    assertThat(out).containsExactly(null, 3, 4, 5, 6, null, null, null);
+
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void accessor_sets_all_rows() throws Exception {
+
+    ShapeMap<Integer>[] rows = new ShapeMap[10];
+    for (int i = 0; i < rows.length; i++) {
+      if (i < 5) rows[i] = new ShapeMap<>(Integer.class, "a", 0, "b", 0);
+      else rows[i] = new ShapeMap<>(Integer.class, "b", 0);
+    }
+    rows[1].remove(a);
+
+    ShapeMap.Accessor<Integer> acc = ShapeMap.accessor(a);
+    Integer[] values = new Integer[10];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+    }
+    acc.setAll(rows, 0, 10, values);
+    for (int i = 0; i < rows.length; i++) {
+      assertThat(rows[i].get(a)).isEqualTo(i);
+      assertThat(rows[i]).hasSize(2);
+    }
+    // rows lacking the key share their new shape
+    assertThat(rows[6].shape).isSameAs(rows[9].shape);
+
+    Batch<ShapeMap<Integer>> batch = new Batch<>(10);
+    for (ShapeMap<Integer> row : rows) {
+      batch.add(row);
+    }
+    batch.remove();
+    acc.setAll(batch, new Integer[]{-1, -2, -3, -4, -5, -6, -7, -8, -9});
+    assertThat(rows[0].get(a)).isEqualTo(0);
+    assertThat(rows[1].get(a)).isEqualTo(-1);
+    assertThat(rows[9].get(a)).isEqualTo(-9);
+
+  }
+
+  @Test
+  public void accessor_updates_values_in_place() throws Exception {
+
+    ShapeMap<Object> m = new ShapeMap<>(Object.class, "a", "1", "b", null);
+    ShapeMap.Accessor<Object> a_a = ShapeMap.accessor(a);
+    ShapeMap.Accessor<Object> a_b = ShapeMap.accessor(b);
+    ShapeMap.Accessor<Object> a_c = ShapeMap.accessor(c);
+
+    assertThat(a_a.getOrDefault(m, "x")).isEqualTo("1");
+    assertThat(a_b.getOrDefault(m, "x")).isEqualTo("x");
+    assertThat(a_c.getOrDefault(m, "x")).isEqualTo("x");
+
+    assertThat(a_a.putIfAbsent(m, "x")).isEqualTo("1");
+    assertThat(a_b.putIfAbsent(m, "x")).isNull();
+    assertThat(m.get(b)).isEqualTo("x");
+    assertThat(a_c.putIfAbsent(m, "y")).isNull();
+    assertThat(m.get(c)).isEqualTo("y");
+    assertThat(m).hasSize(3);
+
+    assertThat(a_a.compute(m, v -> v + "!")).isEqualTo("1!");
+    assertThat(a_a.compute(m, v -> null)).isNull();
+    assertThat(m.containsKey(a)).isFalse();
+    assertThat(a_a.compute(m, v -> v)).isNull();
+    assertThat(m).hasSize(2);
+
+    assertThat(a_a.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("m");
+    assertThat(a_a.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("mm");
+    assertThat(a_a.merge(m, "m", (x, y) -> null)).isNull();
+    assertThat(m.containsKey(a)).isFalse();
+
+  }
+
+  @Test
+  public void accessor_adds_to_numbers() throws Exception {
+
+    ShapeMap<Object> m = new ShapeMap<>(Object.class, "a", 1, "b", 1.5);
+    ShapeMap.Accessor<Object> a_a = ShapeMap.accessor(a);
+    ShapeMap.Accessor<Object> a_b = ShapeMap.accessor(b);
+    ShapeMap.Accessor<Object> a_c = ShapeMap.accessor(c);
+    ShapeMap.Accessor<Object> a_d = ShapeMap.accessor(d);
+
+    assertThat(a_a.addLong(m, 2)).isEqualTo(3L);
+    assertThat(m.get(a)).isEqualTo(3L);
+    assertThat(a_b.addDouble(m, 1.0)).isEqualTo(2.5);
+    assertThat(m.get(b)).isEqualTo(2.5);
+
+    for (int i = 0; i < 10; i++) {
+      a_c.addLong(m, 1);
+      a_d.addDouble(m, 0.5);
+    }
+    assertThat(m.get(c)).isEqualTo(10L);
+    assertThat(m.get(d)).isEqualTo(5.0);
+    assertThat(m).hasSize(4);
+
+  }
+
+  // an accessor implemented outside the library, relying on the default update operations
+  private static ShapeMap.Accessor<Object> plainAccessor(ShapeKey k){
+    return new ShapeMap.Accessor<Object>() {
+      @Override
+      public Object get(ShapeMap<?> shapeMap) {
+        return shapeMap.get(k);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Object put(ShapeMap<? super Object> shapeMap, Object v) {
+        return shapeMap.put(k, v);
+      }
+
+      @Override
+      public void set(ShapeMap<? super Object> shapeMap, Object v) {
+        shapeMap.put(k, v);
+      }
+    };
+  }
+
+  @Test
+  public void default_accessor_operations_use_get_and_set() throws Exception {
+
+    ShapeMap<Object> m = new ShapeMap<>(Object.class, "a", "1", "b", 1);
+    ShapeMap.Accessor<Object> a_a = plainAccessor(a);
+    ShapeMap.Accessor<Object> a_b = plainAccessor(b);
+    ShapeMap.Accessor<Object> a_c = plainAccessor(c);
+
+    assertThat(a_a.getOrDefault(m, "x")).isEqualTo("1");
+    assertThat(a_c.getOrDefault(m, "x")).isEqualTo("x");
+    assertThat(a_a.putIfAbsent(m, "x")).isEqualTo("1");
+    assertThat(a_c.putIfAbsent(m, "y")).isNull();
+    assertThat(m.get(c)).isEqualTo("y");
+
+    assertThat(a_a.compute(m, v -> v + "!")).isEqualTo("1!");
+    assertThat(a_a.merge(m, "m", (x, y) -> "" + x + y)).isEqualTo("1!m");
+
+    assertThat(a_b.addLong(m, 2)).isEqualTo(3L);
+    assertThat(a_b.addDouble(m, 0.5)).isEqualTo(3.5);
+    assertThat(m.get(b)).isEqualTo(3.5);
+
+    // the defaults cannot remove keys, they store null results
+    assertThat(a_c.compute(m, v -> null)).isNull();
+    assertThat(m.containsKey(c)).isTrue();
+    assertThat(m.get(c)).isNull();
+
+  }
+
+  @Test
+  public void switches_to_dictionary_mode_after_many_transitions() throws Exception {
+
+    int depth = Shapes.dictionaryDepth();
+    try {
+      Shapes.setDictionaryDepth(4);
+      ShapeMap.Accessor<Integer> acc = ShapeMap.accessor("dict_3");
+
+      ShapeMap<Integer> m = new ShapeMap<>();
+      for (int i = 0; i < 4; i++) {
+        m.sets("dict_" + i, i);
+      }
+      assertThat(m.isDictionary()).isFalse();
+      assertThat(acc.get(m)).isEqualTo(3);
+
+      m.sets("dict_4", 4);
+      assertThat(m.isDictionary()).isTrue();
+
+      // no shared shapes are created in dictionary mode
+      Shape dict = m.shape;
+      int transitions = Shapes.transitionCount();
+      for (int i = 5; i < 100; i++) {
+        m.sets("dict_" + i, i);
+      }
+      assertThat(m.shape).isSameAs(dict);
+      assertThat(Shapes.transitionCount()).isLessThanOrEqualTo(transitions);
+
+      assertThat(m.size()).isEqualTo(100);
+      int expected = 0;
+      for (Map.Entry<ShapeKey, Integer> e : m.entrySet()) {
+        assertThat(e.getKey()).isSameAs(ShapeKey.get("dict_" + expected));
+        assertThat(e.getValue()).isEqualTo(expected);
+        expected++;
+      }
+
+      // accessors work on dictionary maps and keep working on others
+      assertThat(acc.get(m)).isEqualTo(3);
+      acc.set(m, 33);
+      assertThat(m.gets("dict_3")).isEqualTo(33);
+      ShapeMap.Accessor<Integer> added = ShapeMap.accessor("dict_new");
+      assertThat(added.get(m)).isNull();
+      added.set(m, 1);
+      assertThat(added.get(m)).isEqualTo(1);
+      assertThat(m.shape).isSameAs(dict);
+
+      ShapeMap<Integer> other = new ShapeMap<>(Integer.class, "dict_3", 3);
+      assertThat(acc.get(other)).isEqualTo(3);
+
+      // copies get a dictionary shape of their own
+      ShapeMap<Integer> copy = new ShapeMap<>(m);
+      assertThat(copy.isDictionary()).isTrue();
+      copy.sets("dict_copy", 0);
+      assertThat(copy.containsKey(ShapeKey.get("dict_copy"))).isTrue();
+      assertThat(m.containsKey(ShapeKey.get("dict_copy"))).isFalse();
+      assertThat(m.shape.idxFor(ShapeKey.get("dict_copy"))).isEqualTo(0);
+    }
+    finally {
+      Shapes.setDictionaryDepth(depth);
+    }
+
+  }
+
+  @Test
+  public void switches_to_dictionary_mode_for_many_keys() throws Exception {
+
+    int size = Shapes.dictionarySize();
+    try {
+      Shapes.setDictionarySize(10);
+
+      ShapeMap<Integer> m = new ShapeMap<>(Integer.class, "wide_0", 0);
+      HashMap<ShapeKey, Integer> more = new HashMap<>();
+      for (int i = 1; i < 20; i++) {
+        more.put(ShapeKey.get("wide_" + i), i);
+      }
+      m.putAll(more);
+
+      assertThat(m.isDictionary()).isTrue();
+      assertThat(m.size()).isEqualTo(20);
+      for (int i = 0; i < 20; i++) {
+        assertThat(m.gets("wide_" + i)).isEqualTo(i);
+      }
+
+      m.removes("wide_5");
+      assertThat(m.size()).isEqualTo(19);
+      assertThat(m.containsKey(ShapeKey.get("wide_5"))).isFalse();
+      m.sets("wide_5", 5);
+      assertThat(m.gets("wide_5")).isEqualTo(5);
+    }
+    finally {
+      Shapes.setDictionarySize(size);
+    }
+
+  }
 
 }
\ No newline at end of file
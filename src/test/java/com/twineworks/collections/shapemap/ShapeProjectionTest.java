@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShapeProjectionTest {
+
+  private static final ShapeKey a = ShapeKey.get("a");
+  private static final ShapeKey b = ShapeKey.get("b");
+  private static final ShapeKey c = ShapeKey.get("c");
+  private static final ShapeKey d = ShapeKey.get("d");
+
+  @Test
+  public void select_keeps_given_keys() throws Exception {
+    ShapeProjection p = ShapeProjection.select(c, a);
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2", "c", "3");
+
+    ShapeMap<String> r = p.apply(m);
+    assertThat(r.shape).isSameAs(p.target().shape());
+    assertThat(r).hasSize(2);
+    assertThat(r.get(a)).isEqualTo("1");
+    assertThat(r.get(c)).isEqualTo("3");
+    assertThat(r.containsKey(b)).isFalse();
+  }
+
+  @Test
+  public void renames_keys() throws Exception {
+    LinkedHashMap<ShapeKey, ShapeKey> renames = new LinkedHashMap<>();
+    renames.put(a, b);
+    renames.put(b, a);
+    renames.put(c, d);
+    ShapeProjection p = ShapeProjection.of(renames);
+
+    ShapeMap<String> r = p.apply(new ShapeMap<>(String.class, "a", "1", "b", "2", "c", "3"));
+    assertThat(r).hasSize(3);
+    assertThat(r.get(a)).isEqualTo("2");
+    assertThat(r.get(b)).isEqualTo("1");
+    assertThat(r.get(d)).isEqualTo("3");
+    assertThat(r.containsKey(c)).isFalse();
+  }
+
+  @Test
+  public void leaves_out_keys_missing_in_source() throws Exception {
+    ShapeProjection p = ShapeProjection.select("a", "b", "d");
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1", "b", "2");
+    m.remove(b);
+
+    ShapeMap<String> r = p.apply(m);
+    assertThat(r).hasSize(1);
+    assertThat(r.get(a)).isEqualTo("1");
+    assertThat(r.containsKey(b)).isFalse();
+    assertThat(r.containsKey(d)).isFalse();
+  }
+
+  @Test
+  public void applies_to_maps_of_many_shapes() throws Exception {
+    ShapeProjection p = ShapeProjection.select(a, b);
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 200; i++) {
+        ShapeMap<Object> m = new ShapeMap<>(Object.class, "projected_" + i, i, "b", i, "a", -i);
+        ShapeMap<Object> r = p.apply(m);
+        assertThat(r).hasSize(2);
+        assertThat(r.get(a)).isEqualTo(-i);
+        assertThat(r.get(b)).isEqualTo(i);
+      }
+    }
+  }
+
+  @Test
+  public void applies_to_dictionary_maps() throws Exception {
+    ShapeMap<Integer> m = new ShapeMap<>();
+    for (int i = 0; i < Shapes.dictionarySize() + 10; i++) {
+      m.sets("projected_dict_" + i, i);
+    }
+    assertThat(m.isDictionary()).isTrue();
+
+    ShapeProjection p = ShapeProjection.select("projected_dict_3", "a");
+    assertThat(p.apply(m).gets("projected_dict_3")).isEqualTo(3);
+
+    m.sets("a", -1);
+    ShapeMap<Integer> r = p.apply(m);
+    assertThat(r.gets("projected_dict_3")).isEqualTo(3);
+    assertThat(r.get(a)).isEqualTo(-1);
+  }
+
+  @Test
+  public void applies_to_const_shape_maps() throws Exception {
+    LinkedHashMap<ShapeKey, ShapeKey> renames = new LinkedHashMap<>();
+    renames.put(a, c);
+    renames.put(d, b);
+    ShapeProjection p = ShapeProjection.of(renames);
+
+    ConstShapeMap<String> r = p.apply(new ConstShapeMap<>(String.class, "a", "1", "b", "2"));
+    assertThat(r.shape).isSameAs(p.target().shape());
+    assertThat(r.get(c)).isEqualTo("1");
+    assertThat(r.get(b)).isNull();
+  }
+
+  @Test
+  public void results_are_independent_of_source() throws Exception {
+    ShapeProjection p = ShapeProjection.select(a);
+    ShapeMap<String> m = new ShapeMap<>(String.class, "a", "1");
+    ShapeMap<String> r = p.apply(m);
+    r.put(a, "x");
+    r.put(b, "y");
+    assertThat(m.get(a)).isEqualTo("1");
+    assertThat(p.apply(m)).isEqualTo(new ShapeMap<>(String.class, "a", "1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejects_duplicate_target_keys() throws Exception {
+    LinkedHashMap<ShapeKey, ShapeKey> renames = new LinkedHashMap<>();
+    renames.put(a, c);
+    renames.put(b, c);
+    ShapeProjection.of(renames);
+  }
+
+}
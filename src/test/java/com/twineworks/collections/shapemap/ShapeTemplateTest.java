@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShapeTemplateTest {
+
+  private static final ShapeKey a = ShapeKey.get("a");
+  private static final ShapeKey b = ShapeKey.get("b");
+  private static final ShapeKey c = ShapeKey.get("c");
+
+  @Test
+  public void template_has_shape_of_keys() throws Exception {
+    ShapeTemplate t = ShapeMap.template(c, a, b);
+    assertThat(t.shape()).isSameAs(Shapes.forKeySet(ShapeKey.getAll(a, b, c)));
+    assertThat(t.keys()).containsExactly(c, a, b);
+    assertThat(t.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void template_ignores_duplicate_keys() throws Exception {
+    ShapeTemplate t = ShapeMap.template("a", "b", "a");
+    assertThat(t.keys()).containsExactly(a, b);
+  }
+
+  @Test
+  public void new_shape_map_has_all_keys_mapped_to_null() throws Exception {
+    ShapeTemplate t = ShapeMap.template(a, b, c);
+    ShapeMap<String> m = t.newShapeMap();
+    assertThat(m.shape).isSameAs(t.shape());
+    assertThat(m).hasSize(3);
+    assertThat(m.containsKey(a)).isTrue();
+    assertThat(m.get(a)).isNull();
+    assertThat(m).isEqualTo(new ShapeMap<>(a, b, c));
+  }
+
+  @Test
+  public void new_shape_map_takes_values_in_template_order() throws Exception {
+    ShapeTemplate t = ShapeMap.template(c, a, b);
+    ShapeMap<String> m = t.newShapeMap("vc", "va", "vb");
+    assertThat(m).hasSize(3);
+    assertThat(m.get(a)).isEqualTo("va");
+    assertThat(m.get(b)).isEqualTo("vb");
+    assertThat(m.get(c)).isEqualTo("vc");
+  }
+
+  @Test
+  public void new_shape_map_takes_values_from_string_map() throws Exception {
+    ShapeTemplate t = ShapeMap.template(a, b);
+    Map<String, String> values = new HashMap<>();
+    values.put("a", "va");
+    values.put("b", null);
+    ShapeMap<String> m = t.newShapeMap(values);
+    assertThat(m).hasSize(2);
+    assertThat(m.get(a)).isEqualTo("va");
+    assertThat(m.containsKey(b)).isTrue();
+    assertThat(m.get(b)).isNull();
+  }
+
+  @Test
+  public void new_shape_maps_are_independent() throws Exception {
+    ShapeTemplate t = ShapeMap.template(a, b);
+    ShapeMap<String> m1 = t.newShapeMap();
+    m1.put(a, "x");
+    m1.put(c, "y");
+    m1.remove(b);
+
+    ShapeMap<String> m2 = t.newShapeMap();
+    assertThat(m2).hasSize(2);
+    assertThat(m2.get(a)).isNull();
+    assertThat(m2.containsKey(b)).isTrue();
+    assertThat(m2.containsKey(c)).isFalse();
+  }
+
+  @Test
+  public void new_shape_map_of_many_keys() throws Exception {
+    String[] syms = new String[100];
+    Object[] values = new Object[100];
+    for (int i = 0; i < syms.length; i++) {
+      syms[i] = "template_key_" + i;
+      values[i] = i;
+    }
+    ShapeMap<Object> m = ShapeMap.template(syms).newShapeMap(values);
+    assertThat(m).hasSize(100);
+    for (int i = 0; i < syms.length; i++) {
+      assertThat(m.gets(syms[i])).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void new_const_shape_map_takes_values_in_template_order() throws Exception {
+    ShapeTemplate t = ShapeMap.template(c, a, b);
+    ConstShapeMap<String> m = t.newConstShapeMap("vc", "va", "vb");
+    assertThat(m.shape).isSameAs(t.shape());
+    assertThat(m.get(a)).isEqualTo("va");
+    assertThat(m.get(b)).isEqualTo("vb");
+    assertThat(m.get(c)).isEqualTo("vc");
+
+    ConstShapeMap<String> empty = t.newConstShapeMap();
+    assertThat(empty.get(a)).isNull();
+  }
+
+  @Test
+  public void new_const_shape_map_takes_values_from_string_map() throws Exception {
+    ShapeTemplate t = ShapeMap.template(a, b);
+    Map<String, String> values = new HashMap<>();
+    values.put("a", "va");
+    values.put("b", "vb");
+    ConstShapeMap<String> m = t.newConstShapeMap(values);
+    assertThat(m.get(a)).isEqualTo("va");
+    assertThat(m.get(b)).isEqualTo("vb");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void new_shape_map_rejects_wrong_number_of_values() throws Exception {
+    ShapeMap.template(a, b).newShapeMap("va");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void new_shape_map_rejects_string_map_with_other_keys() throws Exception {
+    Map<String, String> values = new HashMap<>();
+    values.put("a", "va");
+    values.put("x", "vx");
+    ShapeMap.template(a, b).newShapeMap(values);
+  }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ShapeTest {
+
+  private static final ShapeKey a = ShapeKey.get("a");
+  private static final ShapeKey b = ShapeKey.get("b");
+  private static final ShapeKey c = ShapeKey.get("c");
+  private static final ShapeKey d = ShapeKey.get("d");
+
+  private static Set<ShapeKey> keys(int n){
+    Set<ShapeKey> keys = new HashSet<>();
+    for (int i = 0; i < n; i++) {
+      keys.add(ShapeKey.get("shape_test_key_" + i));
+    }
+    return keys;
+  }
+
+  // all implementations able to hold given keys
+  private static List<Shape> shapes(Set<ShapeKey> keys){
+    List<Shape> shapes = new ArrayList<>();
+    shapes.add(new ShapeN(keys));
+    if (keys.size() <= Shape8.MAX_KEYS){
+      shapes.add(new Shape8(keys));
+    }
+    return shapes;
+  }
+
+  @Test
+  public void assigns_distinct_indexes_to_keys() throws Exception {
+
+    for (int n : new int[]{0, 1, 2, 7, 8, 9, 63, 64, 65, 500}) {
+      Set<ShapeKey> keys = keys(n);
+      for (Shape s : shapes(keys)) {
+
+        Set<Integer> indexes = new HashSet<>();
+        for (ShapeKey key : keys) {
+          int idx = s.idxFor(key);
+          assertThat(idx).isBetween(1, n);
+          indexes.add(idx);
+        }
+        assertThat(indexes).hasSize(n);
+        assertThat(s.size()).isEqualTo(n);
+        assertThat(s.keySet()).isEqualTo(keys);
+      }
+    }
+
+  }
+
+  @Test
+  public void returns_index_zero_for_absent_keys() throws Exception {
+    for (Shape s : shapes(keys(8))) {
+      assertThat(s.idxFor(a)).isEqualTo(0);
+      assertThat(s.idxFor(null)).isEqualTo(0);
+    }
+    assertThat(new ShapeN(keys(100)).idxFor(a)).isEqualTo(0);
+    assertThat(new Shape8(keys(0)).idxFor(a)).isEqualTo(0);
+    assertThat(new ShapeN(keys(0)).idxFor(a)).isEqualTo(0);
+  }
+
+  @Test
+  public void uses_small_shapes_for_few_keys() throws Exception {
+    assertThat(Shapes.forKeySet(keys(0))).isInstanceOf(Shape8.class);
+    assertThat(Shapes.forKeySet(keys(8))).isInstanceOf(Shape8.class);
+    assertThat(Shapes.forKeySet(keys(9))).isInstanceOf(ShapeN.class);
+  }
+
+  @Test
+  public void small_shapes_extend_to_large_shapes_keeping_indexes() throws Exception {
+    Set<ShapeKey> keys = keys(8);
+    Shape s = Shapes.forKeySet(keys);
+    Shape e = s.extendBy(ShapeKey.getAll(a));
+
+    assertThat(e).isInstanceOf(ShapeN.class);
+    assertThat(e.size()).isEqualTo(9);
+    for (ShapeKey key : keys) {
+      assertThat(e.idxFor(key)).isEqualTo(s.idxFor(key));
+    }
+    assertThat(e.idxFor(a)).isEqualTo(9);
+  }
+
+  @Test
+  public void small_shape_key_set_is_read_only() throws Exception {
+    Shape s = new Shape8(ShapeKey.getAll(a, b));
+    assertThat(s.keySet()).containsOnly(a, b);
+    assertThat(s.keySet().contains(c)).isFalse();
+    assertThat(s.keySet().contains("a")).isFalse();
+
+    Iterator<ShapeKey> i = s.keySet().iterator();
+    i.next();
+    try {
+      i.remove();
+      fail("expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException ignored) {
+    }
+  }
+
+  @Test
+  public void extension_keeps_existing_indexes() throws Exception {
+    for (Shape s : shapes(ShapeKey.getAll(a, b))) {
+      Shape e = s.extendBy(ShapeKey.getAll(c, d));
+
+      assertThat(e.idxFor(a)).isEqualTo(s.idxFor(a));
+      assertThat(e.idxFor(b)).isEqualTo(s.idxFor(b));
+      assertThat(e.idxFor(c)).isGreaterThan(2);
+      assertThat(e.idxFor(d)).isGreaterThan(2);
+      assertThat(e.idxFor(c)).isNotEqualTo(e.idxFor(d));
+      assertThat(e.size()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  public void extension_by_present_keys_keeps_indexes() throws Exception {
+    for (Shape s : shapes(ShapeKey.getAll(a, b))) {
+      Shape e = s.extendBy(ShapeKey.getAll(a, c));
+
+      assertThat(e.size()).isEqualTo(3);
+      assertThat(e.idxFor(a)).isEqualTo(s.idxFor(a));
+      assertThat(e.idxFor(c)).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void extension_after_shrinking_does_not_reuse_indexes() throws Exception {
+    for (Shape s : shapes(ShapeKey.getAll(a, b, c))) {
+      Shape shrunk = s.shrinkBy(ShapeKey.getAll(b));
+      Shape e = shrunk.extendBy(ShapeKey.getAll(d));
+
+      assertThat(shrunk.idxFor(b)).isEqualTo(0);
+      assertThat(shrunk.idxFor(null)).isEqualTo(0);
+      assertThat(shrunk.size()).isEqualTo(2);
+      assertThat(e.idxFor(a)).isEqualTo(s.idxFor(a));
+      assertThat(e.idxFor(c)).isEqualTo(s.idxFor(c));
+      assertThat(e.idxFor(d)).isNotIn(s.idxFor(a), s.idxFor(b), s.idxFor(c));
+
+      ShapeMap<String> m = new ShapeMap<>();
+      m.shape = e;
+      e.init(m);
+      assertThat(m.storage.length).isGreaterThan(e.idxFor(d));
+    }
+  }
+
+  @Test
+  public void interned_shapes_are_not_affected_by_callers_changing_their_key_set() throws Exception {
+    Set<ShapeKey> keys = new HashSet<>(ShapeKey.getAll("interned_1", "interned_2"));
+    Shape s = Shapes.forKeySet(keys);
+    keys.add(a);
+    assertThat(Shapes.forKeySet(ShapeKey.getAll("interned_1", "interned_2"))).isSameAs(s);
+  }
+
+  @Test
+  public void repeated_extension_returns_the_same_shape() throws Exception {
+    for (Shape s : shapes(ShapeKey.getAll(a))) {
+      Shape e = s.extendBy(b);
+      assertThat(s.extendBy(b)).isSameAs(e);
+      assertThat(s.extendBy(ShapeKey.getAll(b))).isSameAs(e);
+      assertThat(s.extendBy(ShapeKey.getAll(a, b))).isSameAs(e);
+
+      Shape e2 = s.extendBy(ShapeKey.getAll(c, d));
+      assertThat(s.extendBy(ShapeKey.getAll(d, c))).isSameAs(e2);
+
+      Shape r = e2.shrinkBy(ShapeKey.getAll(c));
+      assertThat(e2.shrinkBy(ShapeKey.getAll(c, b))).isSameAs(r);
+    }
+  }
+
+  @Test
+  public void extension_by_present_keys_returns_the_shape() throws Exception {
+    for (Shape s : shapes(ShapeKey.getAll(a, b))) {
+      assertThat(s.extendBy(a)).isSameAs(s);
+      assertThat(s.extendBy(ShapeKey.getAll(a, b))).isSameAs(s);
+      assertThat(s.extendBy(Collections.<ShapeKey>emptySet())).isSameAs(s);
+      assertThat(s.shrinkBy(ShapeKey.getAll(c))).isSameAs(s);
+    }
+  }
+
+  @Test
+  public void concurrent_extensions_agree_on_one_shape() throws Exception {
+
+    for (Shape s : shapes(ShapeKey.getAll(a, b))) {
+
+      final int threads = 8;
+      final Shape[] results = new Shape[threads];
+      final CountDownLatch start = new CountDownLatch(1);
+      ArrayList<Thread> workers = new ArrayList<>();
+
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        Thread w = new Thread(() -> {
+          try {
+            start.await();
+            results[thread] = s.extendBy(c);
+          } catch (InterruptedException ignored) {
+          }
+        });
+        w.start();
+        workers.add(w);
+      }
+
+      start.countDown();
+      for (Thread w : workers) {
+        w.join();
+      }
+
+      for (Shape r : results) {
+        assertThat(r).isSameAs(s.extendBy(c));
+      }
+    }
+
+  }
+
+}
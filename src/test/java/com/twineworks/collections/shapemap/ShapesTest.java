@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Twineworks GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.twineworks.collections.shapemap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShapesTest {
+
+  // collects garbage until the transition count drops to at most max
+  private static boolean awaitTransitionCount(int max) throws InterruptedException {
+    for (int i = 0; i < 50; i++) {
+      System.gc();
+      Shapes.purge();
+      if (Shapes.transitionCount() <= max) return true;
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+  @Test
+  public void transitions_to_unused_shapes_are_reclaimed() throws Exception {
+
+    Shape root = Shapes.forKeySet(ShapeKey.getAll("reclaim_root"));
+    int before = Shapes.transitionCount();
+
+    for (int i = 0; i < 1000; i++) {
+      root.extendBy(ShapeKey.get("reclaim_" + i));
+    }
+
+    assertThat(awaitTransitionCount(before)).isTrue();
+
+  }
+
+  // builds chains of transitions from a root shape that is not referenced afterwards
+  private static void buildUnreachableChains(String prefix, int chains, int depth){
+    Shape root = Shapes.forKeySet(ShapeKey.getAll(prefix + "root"));
+    for (int i = 0; i < chains; i++) {
+      Shape s = root.extendBy(ShapeKey.get(prefix + i));
+      for (int j = 0; j < depth; j++) {
+        s = s.extendBy(ShapeKey.get(prefix + i + "_" + j));
+      }
+    }
+  }
+
+  @Test
+  public void transitions_of_unused_root_shapes_are_reclaimed() throws Exception {
+
+    System.gc();
+    Shapes.purge();
+    int before = Shapes.transitionCount();
+
+    // parents and children become unreachable together
+    buildUnreachableChains("dropped_root_", 200, 5);
+    assertThat(Shapes.transitionCount()).isGreaterThanOrEqualTo(before + 1200);
+
+    assertThat(awaitTransitionCount(before)).isTrue();
+
+  }
+
+  @Test
+  public void shapes_in_use_keep_their_transition_path() throws Exception {
+
+    ShapeKey a = ShapeKey.get("path_a");
+    ShapeKey b = ShapeKey.get("path_b");
+    ShapeKey c = ShapeKey.get("path_c");
+
+    ShapeMap<String> m = new ShapeMap<>();
+    m.put(a, "");
+    m.put(b, "");
+    m.put(c, "");
+    Shape used = m.shape;
+
+    System.gc();
+    Shapes.purge();
+
+    ShapeMap<String> m2 = new ShapeMap<>();
+    m2.put(a, "");
+    m2.put(b, "");
+    m2.put(c, "");
+    assertThat(m2.shape).isSameAs(used);
+
+  }
+
+  @Test
+  public void capped_transitions_create_unregistered_shapes() throws Exception {
+
+    int max = Shapes.maxTransitions();
+    Shape root = Shapes.forKeySet(ShapeKey.getAll("capped_root"));
+    ShapeKey k = ShapeKey.get("capped_key");
+
+    try {
+      Shapes.setMaxTransitions(0);
+
+      Shape e1 = root.extendBy(k);
+      Shape e2 = root.extendBy(k);
+
+      assertThat(e1).isNotSameAs(e2);
+      assertThat(e1.idxFor(k)).isEqualTo(e2.idxFor(k)).isGreaterThan(0);
+
+      // maps still work, they just do not share shapes
+      ArrayList<ShapeMap<String>> maps = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        ShapeMap<String> m = new ShapeMap<>();
+        m.sets("capped_" + i, "v" + i);
+        maps.add(m);
+      }
+      for (int i = 0; i < 10; i++) {
+        assertThat(maps.get(i).gets("capped_" + i)).isEqualTo("v" + i);
+      }
+    }
+    finally {
+      Shapes.setMaxTransitions(max);
+    }
+
+    Shape e3 = root.extendBy(k);
+    assertThat(root.extendBy(k)).isSameAs(e3);
+
+  }
+
+  @Test
+  public void unused_interned_shapes_are_purged() throws Exception {
+
+    int before = Shapes.internedCount();
+    ShapeKey k = ShapeKey.get("interned_purge");
+    ArrayList<Shape> shapes = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      shapes.add(Shapes.forKeySet(ShapeKey.getAll(k, ShapeKey.get("interned_purge_" + i))));
+    }
+
+    // held shapes stay interned
+    int held = Shapes.internedCount();
+    assertThat(held).isGreaterThan(before);
+    assertThat(held).isGreaterThanOrEqualTo(shapes.size());
+
+    // other reclaimed shapes may be purged meanwhile, so the count
+    // can only be expected to drop by at least the dropped shapes
+    shapes = null;
+    assertThat(awaitInternedCount(held - 1000)).isTrue();
+
+  }
+
+  // collects garbage until the interned shape count drops to at most max
+  private static boolean awaitInternedCount(int max) throws InterruptedException {
+    for (int i = 0; i < 50; i++) {
+      System.gc();
+      Shapes.purge();
+      if (Shapes.internedCount() <= max) return true;
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+}